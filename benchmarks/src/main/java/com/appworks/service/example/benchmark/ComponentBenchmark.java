@@ -0,0 +1,88 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.ServiceConstants;
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The component methods our handlers and resources lean on, each backed by an
+ * {@link GatewayStandIn} that takes {@code latencyMicros} to answer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComponentBenchmark {
+
+    private static final List<String> ALL_KEYS = Arrays.asList(
+            ServiceConstants.OUR_STRING_SETTING_KEY,
+            ServiceConstants.OUR_NUMBER_SETTING_KEY,
+            ServiceConstants.OUR_BOOL_SETTING_KEY,
+            ServiceConstants.OUR_JSON_SETTING_KEY);
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    private ServiceFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(latencyMicros);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Benchmark
+    public Optional<Setting> settingsGetSetting() {
+        return fixture.settingsService.getSetting(ServiceConstants.OUR_STRING_SETTING_KEY);
+    }
+
+    @Benchmark
+    public Map<String, Setting> settingsGetSettings() {
+        return fixture.settingsService.getSettings(ALL_KEYS, 2000L);
+    }
+
+    @Benchmark
+    public Optional<Object> authGetUserForToken() throws Exception {
+        return fixture.authTokenService.getUserForToken(ServiceFixture.VALID_TOKEN);
+    }
+
+    @Benchmark
+    public void pushSendTestMessage() {
+        fixture.pushNotificationService.sendTestMessage("benchmark");
+    }
+
+    @Benchmark
+    public CompletableFuture<Boolean> pushSendTestMessageAsync() {
+        return fixture.pushNotificationService.sendTestMessageAsync("benchmark");
+    }
+
+    @Benchmark
+    public boolean mailSendEmail() {
+        return fixture.mailerService.sendEmail(
+                new MailRequest("from@example.com", Arrays.asList("to@example.com"), "subject", "body"));
+    }
+
+    @Benchmark
+    public boolean mailQueueEmail() {
+        return fixture.mailerService.queueEmail("from@example.com", Arrays.asList("to@example.com"),
+                "subject", "body");
+    }
+
+}
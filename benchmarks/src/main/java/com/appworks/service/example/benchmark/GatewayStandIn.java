@@ -0,0 +1,199 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.gateway.AuthGateway;
+import com.appworks.service.example.gateway.MailGateway;
+import com.appworks.service.example.gateway.NotificationsGateway;
+import com.appworks.service.example.gateway.RuntimesGateway;
+import com.appworks.service.example.gateway.SettingsGateway;
+import com.appworks.service.example.gateway.TrustedProviderGateway;
+import com.appworks.service.example.services.SettingDefinition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import com.opentext.otag.sdk.types.v3.MailResult;
+import com.opentext.otag.sdk.types.v3.TrustedProvider;
+import com.opentext.otag.sdk.types.v3.TrustedProviders;
+import com.opentext.otag.sdk.types.v3.api.SDKResponse;
+import com.opentext.otag.sdk.types.v3.apps.Runtimes;
+import com.opentext.otag.sdk.types.v3.notification.ClientPushNotificationRequest;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.sdk.types.v3.settings.SettingType;
+
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process stand-in for the Gateway endpoints our components call, so they can be
+ * measured and load tested without a Gateway. Every call takes {@code latencyMicros} to answer
+ * and, once {@link #setErrorRate(double)} is set, fails with that probability. A failure is raised as the
+ * {@link ProcessingException} the SDK's JAX-RS client raises when the Gateway cannot be reached.
+ * <p>
+ * The settings store holds our service settings plus {@code extraSettings} more keyed
+ * {@code standin.setting.N}, list them in {@code myservice.config.keys} to have them served.
+ */
+class GatewayStandIn implements SettingsGateway, AuthGateway, RuntimesGateway, NotificationsGateway,
+        MailGateway, TrustedProviderGateway {
+
+    static final String APP_NAME = "standin";
+    static final String EXTRA_SETTING_PREFIX = "standin.setting.";
+    static final String VALID_TOKEN = "valid-token";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final long latencyMicros;
+    private volatile double errorRate;
+
+    private final Map<String, Setting> settings = new ConcurrentHashMap<>();
+    private final Map<String, TrustedProvider> providers = new ConcurrentHashMap<>();
+    private final AtomicLong seqNo = new AtomicLong();
+    private final Runtimes runtimes;
+    private final SDKResponse pushResponse = SdkTypes.sdkResponse(true);
+    private final MailResult mailResult = SdkTypes.mailResult(true, "sent");
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    GatewayStandIn(long latencyMicros) {
+        this(latencyMicros, 0, 10, 10);
+    }
+
+    /**
+     * @param latencyMicros simulated round trip time of each call
+     * @param extraSettings settings to hold in addition to our own
+     * @param runtimeCount  runtimes the Gateway reports
+     * @param providerCount trusted providers the Gateway already holds
+     */
+    GatewayStandIn(long latencyMicros, int extraSettings, int runtimeCount, int providerCount) {
+        this.latencyMicros = latencyMicros;
+        this.runtimes = SdkTypes.runtimes(runtimeCount);
+
+        SettingDefinition.SERVICE_SETTINGS.forEach(definition ->
+                settings.put(definition.getKey(), copy(definition.toSetting(APP_NAME), null)));
+        for (int i = 0; i < extraSettings; i++) {
+            String key = EXTRA_SETTING_PREFIX + i;
+            settings.put(key, new Setting(key, APP_NAME, SettingType.string, key, "value" + i, "value" + i,
+                    key, false, seqNo.incrementAndGet()));
+        }
+        for (int i = 0; i < providerCount; i++)
+            providers.put("provider" + i, provider("provider" + i));
+    }
+
+    @Override
+    public Setting getSetting(String key) {
+        call();
+        Setting setting = settings.get(key);
+        // like the Gateway every read hands back a new object
+        return setting == null ? null : copy(setting, setting.getSeqNo());
+    }
+
+    @Override
+    public void createSetting(Setting setting) {
+        call();
+        settings.putIfAbsent(setting.getKey(), copy(setting, null));
+    }
+
+    @Override
+    public void updateSetting(Setting setting) {
+        call();
+        settings.put(setting.getKey(), copy(setting, null));
+    }
+
+    @Override
+    public Object getUserForToken(String otagToken) {
+        call();
+        return VALID_TOKEN.equals(otagToken) ? otagToken : null;
+    }
+
+    @Override
+    public Runtimes getAllRuntimes() {
+        call();
+        return runtimes;
+    }
+
+    @Override
+    public SDKResponse sendPushNotification(ClientPushNotificationRequest request) {
+        call();
+        return pushResponse;
+    }
+
+    @Override
+    public MailResult sendMail(MailRequest mailRequest) {
+        call();
+        return mailResult;
+    }
+
+    @Override
+    public TrustedProviders getAllProviders() {
+        call();
+        Map<String, Object> json = new HashMap<>();
+        json.put("trustedProviders", new ArrayList<>(providers.values()));
+        return MAPPER.convertValue(json, TrustedProviders.class);
+    }
+
+    @Override
+    public TrustedProvider getOrCreate(String name) {
+        call();
+        return providers.computeIfAbsent(name, GatewayStandIn::provider);
+    }
+
+    /**
+     * Start failing calls, usually once our components have started.
+     *
+     * @param errorRate the fraction of calls, 0 to 1, that fail
+     */
+    void setErrorRate(double errorRate) {
+        if (errorRate < 0d || errorRate > 1d)
+            throw new IllegalArgumentException("errorRate must be between 0 and 1, was " + errorRate);
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @return how many calls our components made
+     */
+    long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return how many of those calls we failed on purpose
+     */
+    long getFailures() {
+        return failures.sum();
+    }
+
+    private void call() {
+        calls.increment();
+        Latency.pause(latencyMicros);
+        double failureRate = errorRate;
+        if (failureRate > 0d && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failures.increment();
+            throw new ProcessingException("Simulated Gateway failure");
+        }
+    }
+
+    /**
+     * @param keepSeqNo the sequence number to keep, or null to assign the next one as a write does
+     */
+    private Setting copy(Setting setting, Long keepSeqNo) {
+        long copySeqNo = keepSeqNo != null ? keepSeqNo : seqNo.incrementAndGet();
+        return new Setting(setting.getKey(), APP_NAME, setting.getType(), setting.getKey(),
+                setting.getValue(), setting.getValue(), setting.getKey(), false, copySeqNo);
+    }
+
+    private static TrustedProvider provider(String name) {
+        Map<String, Object> json = new HashMap<>();
+        json.put("name", name);
+        json.put("key", name + "-key");
+        return MAPPER.convertValue(json, TrustedProvider.class);
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated Gateway round trip time for our in-memory stand-ins.
+ */
+final class Latency {
+
+    private Latency() {
+    }
+
+    /**
+     * Park the calling thread for roughly the given time, a no-op for 0.
+     *
+     * @param micros simulated latency in microseconds
+     */
+    static void pause(long micros) {
+        if (micros > 0)
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+}
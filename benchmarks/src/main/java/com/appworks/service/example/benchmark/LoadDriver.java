@@ -0,0 +1,249 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.api.RestApiConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A repeatable capacity test for our REST API. It runs {@link RestApiConfiguration} in an embedded
+ * servlet container, backs our components with a {@link GatewayStandIn} and has a number of client
+ * threads call the API back to back for a fixed time. Throughput and the p50/p99/p999 latencies seen
+ * by the clients are then reported.
+ * <p>
+ * Configure it via system properties, e.g.
+ * <pre>
+ * java -Dload.concurrency=64 -Dload.latencyMicros=2000 -Dload.errorRate=0.01 \
+ *      -cp benchmarks/target/benchmarks.jar com.appworks.service.example.benchmark.LoadDriver
+ * </pre>
+ */
+public class LoadDriver {
+
+    /**
+     * Client threads calling the API.
+     */
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 16);
+    private static final long WARMUP_SECONDS = Long.getLong("load.warmupSeconds", 10L);
+    private static final long DURATION_SECONDS = Long.getLong("load.durationSeconds", 30L);
+    /**
+     * The paths to call, each client thread works through them in turn.
+     */
+    private static final List<String> PATHS = Arrays.stream(
+            System.getProperty("load.paths", "/api/configuration,/api/configuration/our.setting.key").split(","))
+            .map(String::trim)
+            .filter(path -> !path.isEmpty())
+            .collect(Collectors.toList());
+
+    // the Gateway stand-in
+    private static final long LATENCY_MICROS = Long.getLong("load.latencyMicros", 1000L);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("load.errorRate", "0"));
+    private static final int EXTRA_SETTINGS = Integer.getInteger("load.extraSettings", 0);
+    private static final int RUNTIMES = Integer.getInteger("load.runtimes", 10);
+    private static final int PROVIDERS = Integer.getInteger("load.providers", 10);
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        new LoadDriver().run();
+    }
+
+    private void run() throws Exception {
+        // let every client thread keep its connection open
+        System.setProperty("http.maxConnections", String.valueOf(CONCURRENCY));
+
+        GatewayStandIn gateway = new GatewayStandIn(LATENCY_MICROS, EXTRA_SETTINGS, RUNTIMES, PROVIDERS);
+        ServiceFixture fixture = new ServiceFixture(gateway);
+        gateway.setErrorRate(ERROR_RATE);
+
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        ServletHolder jersey = new ServletHolder(new ServletContainer(new RestApiConfiguration()));
+        // as in our web.xml, the resources suspend their requests
+        jersey.setAsyncSupported(true);
+        context.addServlet(jersey, "/api/*");
+        server.setHandler(context);
+        server.start();
+
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            System.out.printf(Locale.ROOT, "Calling %s on port %d with %d clients, Gateway latency %dus, " +
+                    "error rate %.3f%n", PATHS, port, CONCURRENCY, LATENCY_MICROS, ERROR_RATE);
+
+            List<Client> clients = new ArrayList<>(CONCURRENCY);
+            CountDownLatch finished = new CountDownLatch(CONCURRENCY);
+            for (int i = 0; i < CONCURRENCY; i++) {
+                Client client = new Client(port, i, finished);
+                clients.add(client);
+                Thread thread = new Thread(client, "load-client-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+            long gatewayCallsBefore = gateway.getCalls();
+            long gatewayFailuresBefore = gateway.getFailures();
+            recording = true;
+            long started = System.nanoTime();
+            TimeUnit.SECONDS.sleep(DURATION_SECONDS);
+            recording = false;
+            long elapsedNanos = System.nanoTime() - started;
+            running = false;
+            finished.await(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            report(clients, elapsedNanos, gateway.getCalls() - gatewayCallsBefore,
+                    gateway.getFailures() - gatewayFailuresBefore);
+            // what the service saw, includes the warmup
+            System.out.print(fixture.metrics.toPrometheus());
+        } finally {
+            server.stop();
+            fixture.shutdown();
+        }
+    }
+
+    private void report(List<Client> clients, long elapsedNanos, long gatewayCalls, long gatewayFailures) {
+        long errors = 0;
+        int count = 0;
+        for (Client client : clients) {
+            errors += client.errors;
+            count += client.latencies.size;
+        }
+
+        long[] latencies = new long[count];
+        int offset = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies.values, 0, latencies, offset, client.latencies.size);
+            offset += client.latencies.size;
+        }
+        Arrays.sort(latencies);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "requests=%d errors=%d throughput=%.1f req/s%n",
+                count, errors, count / seconds);
+        System.out.printf(Locale.ROOT, "latency ms p50=%.3f p99=%.3f p999=%.3f max=%.3f%n",
+                millis(percentile(latencies, 0.5)), millis(percentile(latencies, 0.99)),
+                millis(percentile(latencies, 0.999)), millis(count == 0 ? 0 : latencies[count - 1]));
+        System.out.printf(Locale.ROOT, "gateway calls=%d (%.2f per request) injected failures=%d%n",
+                gatewayCalls, count == 0 ? 0d : (double) gatewayCalls / count, gatewayFailures);
+    }
+
+    /**
+     * Nearest rank percentile of sorted values.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * A client thread, it only records while the driver is measuring.
+     */
+    private class Client implements Runnable {
+
+        private final int port;
+        private final int first;
+        private final CountDownLatch finished;
+        private final byte[] buffer = new byte[8192];
+
+        private final LongList latencies = new LongList();
+        private long errors;
+
+        Client(int port, int first, CountDownLatch finished) {
+            this.port = port;
+            this.first = first;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // stagger the clients so they don't all start on the same path
+                int next = first;
+                while (running) {
+                    String path = PATHS.get(next++ % PATHS.size());
+                    long started = System.nanoTime();
+                    boolean ok = call(path);
+                    long took = System.nanoTime() - started;
+                    if (recording) {
+                        latencies.add(took);
+                        if (!ok)
+                            errors++;
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private boolean call(String path) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", port, path)
+                        .openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                connection.setRequestProperty("Accept", "application/json");
+                connection.setRequestProperty("otagtoken", GatewayStandIn.VALID_TOKEN);
+
+                int status = connection.getResponseCode();
+                // read the body through so the connection can be reused
+                InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (body != null) {
+                    try (InputStream in = body) {
+                        while (in.read(buffer) != -1) {
+                            // discard
+                        }
+                    }
+                }
+                return status < 400;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+    }
+
+    /**
+     * Growable primitive array, we record a lot of latencies and don't want to box them.
+     */
+    private static class LongList {
+
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+    }
+
+}
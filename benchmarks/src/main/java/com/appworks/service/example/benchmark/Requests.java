@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal stand-ins for the request objects JAX-RS and the servlet container would inject
+ * into our resource methods. Only the methods our resources call are answered.
+ */
+final class Requests {
+
+    private Requests() {
+    }
+
+    /**
+     * @param ifNoneMatch the entity tag the client holds, or null for an unconditional request
+     */
+    static Request request(EntityTag ifNoneMatch) {
+        return (Request) Proxy.newProxyInstance(Requests.class.getClassLoader(),
+                new Class<?>[]{Request.class}, (proxy, method, args) -> {
+                    if ("evaluatePreconditions".equals(method.getName()) && args != null &&
+                            args.length == 1 && args[0] instanceof EntityTag) {
+                        return args[0].equals(ifNoneMatch) ? Response.notModified((EntityTag) args[0]) : null;
+                    }
+                    if ("getMethod".equals(method.getName()))
+                        return "GET";
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header, may be null
+     */
+    static HttpHeaders headers(String acceptEncoding) {
+        return (HttpHeaders) Proxy.newProxyInstance(Requests.class.getClassLoader(),
+                new Class<?>[]{HttpHeaders.class}, (proxy, method, args) -> {
+                    if ("getHeaderString".equals(method.getName()))
+                        return HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase((String) args[0]) ? acceptEncoding : null;
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static HttpServletRequest servletRequest() {
+        return (HttpServletRequest) Proxy.newProxyInstance(Requests.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    if ("getRemoteAddr".equals(method.getName()))
+                        return "127.0.0.1";
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+}
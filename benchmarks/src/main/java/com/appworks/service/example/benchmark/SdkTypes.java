@@ -0,0 +1,60 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentext.otag.sdk.types.v3.MailResult;
+import com.opentext.otag.sdk.types.v3.api.SDKResponse;
+import com.opentext.otag.sdk.types.v3.apps.Runtimes;
+import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the SDK response types our stand-ins return. These are the same JSON types the
+ * SDK clients read from the Gateway, so we build them the same way.
+ */
+final class SdkTypes {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SdkTypes() {
+    }
+
+    static SDKResponse sdkResponse(boolean success) {
+        Map<String, Object> json = new HashMap<>();
+        json.put("success", success);
+        return MAPPER.convertValue(json, SDKResponse.class);
+    }
+
+    static MailResult mailResult(boolean success, String message) {
+        Map<String, Object> json = new HashMap<>();
+        json.put("success", success);
+        json.put("message", message);
+        return MAPPER.convertValue(json, MailResult.class);
+    }
+
+    static Runtimes runtimes(int count) {
+        List<Map<String, Object>> runtimes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> runtime = new HashMap<>();
+            runtime.put("name", "runtime" + i);
+            runtimes.add(runtime);
+        }
+        Map<String, Object> json = new HashMap<>();
+        json.put("runtimes", runtimes);
+        return MAPPER.convertValue(json, Runtimes.class);
+    }
+
+    static SettingsChangeMessage settingsChange(String key, String newValue) {
+        Map<String, Object> json = new HashMap<>();
+        json.put("key", key);
+        json.put("newValue", newValue);
+        return MAPPER.convertValue(json, SettingsChangeMessage.class);
+    }
+
+}
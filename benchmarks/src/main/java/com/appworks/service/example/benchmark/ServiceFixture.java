@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.gateway.AuthGateway;
+import com.appworks.service.example.gateway.MailGateway;
+import com.appworks.service.example.gateway.NotificationsGateway;
+import com.appworks.service.example.gateway.RuntimesGateway;
+import com.appworks.service.example.gateway.SettingsGateway;
+import com.appworks.service.example.gateway.TrustedProviderGateway;
+import com.appworks.service.example.services.AuthTokenService;
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.MailerService;
+import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.RequestExecutor;
+import com.appworks.service.example.services.RuntimesRegistry;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.appworks.service.example.services.SettingChangeDispatcher;
+import com.appworks.service.example.services.SettingsService;
+import com.appworks.service.example.services.TrustedProviderService;
+import com.opentext.otag.service.context.components.AWComponentContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Our components wired to a {@link GatewayStandIn} and published to the
+ * {@link AWComponentContext}, as the bootstrapper would. Their calls are timed in our
+ * {@link ServiceMetrics} and go through a {@link GatewayGuard} as they do in the service.
+ */
+class ServiceFixture {
+
+    static final String VALID_TOKEN = GatewayStandIn.VALID_TOKEN;
+
+    final GatewayStandIn gateway;
+    final ServiceMetrics metrics = new ServiceMetrics();
+    final GatewayGuard guard = new GatewayGuard();
+    final RequestExecutor requestExecutor = new RequestExecutor();
+    final SettingChangeDispatcher changeDispatcher = new SettingChangeDispatcher();
+    final SettingsService settingsService;
+    final RuntimesRegistry runtimesRegistry;
+    final PushNotificationService pushNotificationService;
+    final MailerService mailerService;
+    final AuthTokenService authTokenService;
+
+    ServiceFixture(long latencyMicros) throws IOException {
+        this(new GatewayStandIn(latencyMicros));
+    }
+
+    ServiceFixture(GatewayStandIn gateway) throws IOException {
+        this.gateway = gateway;
+
+        // keep the mail outbox journal away from any real one
+        File outboxDir = Files.createTempDirectory("standin-outbox").toFile();
+        System.setProperty("myservice.mail.outbox.dir", outboxDir.getPath());
+        System.setProperty("myservice.mail.outbox.fsync", "false");
+
+        settingsService = new SettingsService(
+                SettingsGateway.guarded(SettingsGateway.timed(gateway, metrics), guard));
+        settingsService.createServiceSettings(GatewayStandIn.APP_NAME);
+        // validates our trusted provider against the stand-in, nothing holds on to it after that
+        new TrustedProviderService(
+                TrustedProviderGateway.guarded(TrustedProviderGateway.timed(gateway, metrics), guard));
+
+        runtimesRegistry = new RuntimesRegistry(
+                RuntimesGateway.guarded(RuntimesGateway.timed(gateway, metrics), guard), 60_000L);
+        // lists the Runtimes straight away, the snapshot is filled before the benchmarks warm up
+        runtimesRegistry.start();
+        pushNotificationService = new PushNotificationService(
+                NotificationsGateway.guarded(NotificationsGateway.timed(gateway, metrics), guard), runtimesRegistry);
+        pushNotificationService.start();
+        mailerService = new MailerService(
+                MailGateway.guarded(MailGateway.timed(gateway, metrics), guard));
+        authTokenService = new AuthTokenService(
+                AuthGateway.guarded(AuthGateway.timed(gateway, metrics), guard), 10_000, 60_000L, 5_000L);
+
+        AWComponentContext.add(metrics, guard, requestExecutor, changeDispatcher, settingsService, runtimesRegistry,
+                pushNotificationService, mailerService, authTokenService);
+    }
+
+    void shutdown() {
+        requestExecutor.shutdown();
+        changeDispatcher.shutdown();
+        settingsService.shutdown();
+        runtimesRegistry.shutdown();
+        pushNotificationService.shutdown();
+        mailerService.shutdown();
+    }
+
+}
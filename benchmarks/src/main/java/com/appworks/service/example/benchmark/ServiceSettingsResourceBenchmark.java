@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.api.MyImmutableDataObject;
+import com.appworks.service.example.api.ServiceSettingsResource;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The /api/configuration endpoints called as Jersey would call them, minus the HTTP
+ * transport. Each call waits for its suspended request to be answered by our request pool.
+ * The Gateway is a {@link GatewayStandIn} that takes {@code latencyMicros} to answer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceSettingsResourceBenchmark {
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    private ServiceFixture fixture;
+    private ServiceSettingsResource resource;
+
+    private Request unconditional;
+    private Request conditionalAll;
+    private Request conditionalKey;
+    private HttpHeaders identity;
+    private HttpHeaders gzip;
+    private HttpServletRequest servletRequest;
+
+    private final AtomicLong putCounter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(latencyMicros);
+        resource = new ServiceSettingsResource();
+
+        unconditional = Requests.request(null);
+        identity = Requests.headers(null);
+        gzip = Requests.headers("gzip, deflate");
+        servletRequest = Requests.servletRequest();
+
+        // capture the current tags so the conditional requests are answered with a 304
+        conditionalAll = Requests.request(entityTag(getAll()));
+        conditionalKey = Requests.request(entityTag(byKey(unconditional, ServiceConstants.OUR_STRING_SETTING_KEY)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Benchmark
+    public Response getAll() throws Exception {
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.getServiceConfig(suspended.asyncResponse(), unconditional, identity);
+        return suspended.await();
+    }
+
+    @Benchmark
+    public Response getAllGzip() throws Exception {
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.getServiceConfig(suspended.asyncResponse(), unconditional, gzip);
+        return suspended.await();
+    }
+
+    @Benchmark
+    public Response getAllNotModified() throws Exception {
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.getServiceConfig(suspended.asyncResponse(), conditionalAll, identity);
+        return suspended.await();
+    }
+
+    @Benchmark
+    public Response getByKey() throws Exception {
+        return byKey(unconditional, ServiceConstants.OUR_NUMBER_SETTING_KEY);
+    }
+
+    @Benchmark
+    public Response getByKeyNotModified() throws Exception {
+        return byKey(conditionalKey, ServiceConstants.OUR_STRING_SETTING_KEY);
+    }
+
+    @Benchmark
+    public Response getSecurely() throws Exception {
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.getServiceConfigSecurely(suspended.asyncResponse(), servletRequest, unconditional, identity,
+                ServiceFixture.VALID_TOKEN);
+        return suspended.await();
+    }
+
+    @Benchmark
+    public Response put() throws Exception {
+        // a distinct value each call so every PUT is a real update
+        String value = "value-" + putCounter.incrementAndGet();
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.updateConfigValue(suspended.asyncResponse(), ServiceConstants.OUR_STRING_SETTING_KEY,
+                new MyImmutableDataObject(ServiceConstants.OUR_STRING_SETTING_KEY, value));
+        return suspended.await();
+    }
+
+    private Response byKey(Request request, String key) throws Exception {
+        SuspendedResponse suspended = new SuspendedResponse();
+        resource.getConfigByKey(suspended.asyncResponse(), request, identity, key);
+        return suspended.await();
+    }
+
+    private static EntityTag entityTag(Response response) {
+        EntityTag tag = response.getEntityTag();
+        if (tag == null)
+            throw new IllegalStateException("Expected an ETag, got status " + response.getStatus());
+        return tag;
+    }
+
+}
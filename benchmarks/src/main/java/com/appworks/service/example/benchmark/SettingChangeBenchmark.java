@@ -0,0 +1,55 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.handlers.CustomSettingsHandler;
+import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost the Gateway's setting change delivery sees when it hands a change to our
+ * {@link CustomSettingsHandler}. The rest of the handling is debounced and done later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SettingChangeBenchmark {
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    private ServiceFixture fixture;
+    private CustomSettingsHandler handler;
+    private Method onSettingChanged;
+    private SettingsChangeMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(latencyMicros);
+        handler = new CustomSettingsHandler();
+        // the SDK dispatches to the handler we registered, which is private to the handler
+        onSettingChanged = CustomSettingsHandler.class
+                .getDeclaredMethod("onSettingChanged", SettingsChangeMessage.class);
+        onSettingChanged.setAccessible(true);
+        message = SdkTypes.settingsChange(ServiceConstants.OUR_STRING_SETTING_KEY, "changed");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Benchmark
+    public void onSettingChanged() throws Exception {
+        onSettingChanged.invoke(handler, message);
+    }
+
+}
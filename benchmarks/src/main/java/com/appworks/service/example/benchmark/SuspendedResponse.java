@@ -0,0 +1,51 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.benchmark;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Stands in for the {@link AsyncResponse} JAX-RS suspends our requests with, so the
+ * benchmarks can wait for the answer. Timeouts are left to the benchmark harness.
+ */
+final class SuspendedResponse {
+
+    private final CompletableFuture<Object> resumed = new CompletableFuture<>();
+    private final AsyncResponse asyncResponse = (AsyncResponse) Proxy.newProxyInstance(
+            SuspendedResponse.class.getClassLoader(), new Class<?>[]{AsyncResponse.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "resume":
+                        return resumed.complete(args[0]);
+                    case "isDone":
+                        return resumed.isDone();
+                    case "setTimeout":
+                    case "register":
+                        return true;
+                    case "setTimeoutHandler":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    AsyncResponse asyncResponse() {
+        return asyncResponse;
+    }
+
+    /**
+     * @return the response the request was resumed with
+     */
+    Response await() throws InterruptedException, ExecutionException {
+        Object result = resumed.get();
+        if (result instanceof Throwable)
+            throw new ExecutionException((Throwable) result);
+        return (Response) result;
+    }
+
+}
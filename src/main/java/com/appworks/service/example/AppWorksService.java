@@ -3,11 +3,20 @@
  */
 package com.appworks.service.example;
 
+import com.appworks.service.example.services.MailerService;
+import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.RequestExecutor;
+import com.appworks.service.example.services.RuntimesRegistry;
+import com.appworks.service.example.services.SettingChangeDispatcher;
+import com.appworks.service.example.services.SettingsChangeBroadcaster;
+import com.appworks.service.example.services.SettingsService;
+import com.appworks.service.example.services.TrustedProviderService;
 import com.opentext.otag.sdk.client.v3.ServiceClient;
 import com.opentext.otag.sdk.handlers.AWServiceContextHandler;
 import com.opentext.otag.sdk.handlers.AWServiceStartupComplete;
 import com.opentext.otag.sdk.types.v3.api.error.APIException;
 import com.opentext.otag.sdk.types.v3.management.DeploymentResult;
+import com.opentext.otag.service.context.components.AWComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,11 +42,42 @@ public class AppWorksService implements AWServiceContextHandler {
     @Override
     public void onStop(String appName) {
         LOG.info("AppWorksService#onStop() called for \"" + appName + "\"");
+        // turn requests away before we take the components they use down
+        ServiceReadiness.moveTo(ServiceReadiness.State.STOPPING, null);
+        // stop the background workers our components started
+        SettingsService settingsService = AWComponentContext.getComponent(SettingsService.class);
+        if (settingsService != null)
+            settingsService.shutdown();
+        PushNotificationService pushNotificationService =
+                AWComponentContext.getComponent(PushNotificationService.class);
+        if (pushNotificationService != null)
+            pushNotificationService.shutdown();
+        MailerService mailerService = AWComponentContext.getComponent(MailerService.class);
+        if (mailerService != null)
+            mailerService.shutdown();
+        RuntimesRegistry runtimesRegistry = AWComponentContext.getComponent(RuntimesRegistry.class);
+        if (runtimesRegistry != null)
+            runtimesRegistry.shutdown();
+        TrustedProviderService trustedProviderService = AWComponentContext.getComponent(TrustedProviderService.class);
+        if (trustedProviderService != null)
+            trustedProviderService.shutdown();
+        RequestExecutor requestExecutor = AWComponentContext.getComponent(RequestExecutor.class);
+        if (requestExecutor != null)
+            requestExecutor.shutdown();
+        SettingChangeDispatcher changeDispatcher = AWComponentContext.getComponent(SettingChangeDispatcher.class);
+        if (changeDispatcher != null)
+            changeDispatcher.shutdown();
+        SettingsChangeBroadcaster changeBroadcaster = AWComponentContext.getComponent(SettingsChangeBroadcaster.class);
+        if (changeBroadcaster != null)
+            changeBroadcaster.shutdown();
+        ServiceReadiness.moveTo(ServiceReadiness.State.STOPPED, null);
     }
 
     private void startServiceAndCompleteDeployment(String appName) {
         LOG.info("AppWorksService#onStart() - initializing service \"" + appName + "\"");
         ServiceClient serviceClient = new ServiceClient();
+        // a no-op on our first start
+        ServiceReadiness.moveTo(ServiceReadiness.State.STARTING, null);
 
         try {
             // as soon as onStart is called in any implementation of AWServiceContextHandler
@@ -46,6 +86,7 @@ public class AppWorksService implements AWServiceContextHandler {
 
             // make sure we let the Gateway know we have completed our startup
             serviceClient.completeDeployment(new DeploymentResult(true));
+            ServiceReadiness.moveTo(ServiceReadiness.State.READY, null);
             LOG.info("AppWorksService#onStart() completed");
         } catch (Exception e) {
             reportDeploymentFailure(appName, serviceClient, e);
@@ -53,6 +94,7 @@ public class AppWorksService implements AWServiceContextHandler {
     }
 
     private void reportDeploymentFailure(String appName, ServiceClient serviceClient, Exception e) {
+        ServiceReadiness.moveTo(ServiceReadiness.State.FAILED, e.getMessage());
         if (e instanceof APIException) {
             LOG.error("SDK call failed - {}", ((APIException) e).getCallInfo());
             throw new RuntimeException("Failed to report deployment outcome ", e);
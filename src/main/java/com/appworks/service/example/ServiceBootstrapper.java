@@ -1,20 +1,35 @@
 package com.appworks.service.example;
 
+import com.appworks.service.example.gateway.AuthGateway;
+import com.appworks.service.example.gateway.MailGateway;
+import com.appworks.service.example.gateway.NotificationsGateway;
+import com.appworks.service.example.gateway.RuntimesGateway;
+import com.appworks.service.example.gateway.SettingsGateway;
+import com.appworks.service.example.gateway.TrustedProviderGateway;
+import com.appworks.service.example.services.AuthTokenService;
+import com.appworks.service.example.services.GatewayGuard;
 import com.appworks.service.example.services.MailerService;
 import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.RequestExecutor;
+import com.appworks.service.example.services.RuntimesRegistry;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.appworks.service.example.services.SettingChangeDispatcher;
+import com.appworks.service.example.services.SettingsChangeBroadcaster;
 import com.appworks.service.example.services.SettingsService;
+import com.appworks.service.example.services.SettingsSnapshot;
 import com.appworks.service.example.services.TrustedProviderService;
 import com.opentext.otag.sdk.client.v3.GatewayClientRegistry;
-import com.opentext.otag.sdk.client.v3.RuntimesClient;
-import com.opentext.otag.sdk.types.v3.api.error.APIException;
 import com.opentext.otag.sdk.types.v3.apps.Runtime;
-import com.opentext.otag.sdk.types.v3.apps.Runtimes;
 import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.service.context.components.AWComponent;
 import com.opentext.otag.service.context.components.AWComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 /**
  * Service bootstrap class, initializes the AppWorks related services, injecting them into the
@@ -25,21 +40,64 @@ import java.util.List;
  * ({@link com.opentext.otag.service.context.components.AWComponent}).
  * <p>
  * It is also responsible for creating the required configuration {@link Setting} for this service.
+ * <p>
+ * Independent parts of the startup run in parallel as a {@link StartupPlan}, the time each
+ * phase took is logged and kept as a {@link StartupReport}.
+ * <p>
+ * Every SDK client is wrapped so the latency and failures of its calls are recorded in our
+ * {@link ServiceMetrics}, and so a degraded Gateway is cut off by our {@link GatewayGuard}.
+ * <p>
+ * The state of each phase is recorded in our {@link ServiceReadiness} as it starts and ends.
  */
 public class ServiceBootstrapper extends GatewayClientRegistry.RegistryUser {
 
     private static final Logger LOG = LoggerFactory.getLogger(ServiceBootstrapper.class);
 
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private final GatewayGuard guard = new GatewayGuard();
+
     public void bootstrapService(String appName) {
-        // setup our Gateway clients, they will be accessible via the component context
-        // once init completes
-        GatewayClientRegistry.init();
-        // ensure this AppWorks Services's settings are recorded at the Gateway
-        initialiseServiceSettings(appName);
-        // construct our own services (AppWorksComponents) making each available to the entire
-        // service, we only have a few to demonstrate some of the SDK
-        initialiseServiceComponents();
-        listKnownRuntimes();
+        // our REST resources answer their requests from this pool, and stream setting changes,
+        // which are handled off the SDK's thread
+        addComponents(metrics, guard, new RequestExecutor(), new SettingsChangeBroadcaster(),
+                new SettingChangeDispatcher());
+
+        long phaseTimeout = Long.getLong(ServiceConstants.STARTUP_PHASE_TIMEOUT_MS_PROPERTY,
+                ServiceConstants.DEFAULT_STARTUP_PHASE_TIMEOUT_MS);
+
+        // the phases only wait on the phases they need, the rest of the startup runs in parallel
+        StartupReport report = new StartupPlan()
+                // our resources serve the parts of the service that are up while the rest starts
+                .listener(new StartupPlan.Listener() {
+                    @Override
+                    public void phaseStarted(String name) {
+                        ServiceReadiness.partStarting(name);
+                    }
+
+                    @Override
+                    public void phaseFinished(StartupReport.PhaseResult result) {
+                        ServiceReadiness.partFinished(result);
+                    }
+                })
+                // setup our Gateway clients, they will be accessible via the component context
+                // once init completes
+                .phase(ServiceReadiness.CLIENTS, phaseTimeout, true, GatewayClientRegistry::init)
+                // ensure this AppWorks Services's settings are recorded at the Gateway
+                .phase("settings", phaseTimeout, true, () -> initialiseServiceSettings(appName),
+                        ServiceReadiness.CLIENTS)
+                // construct our own services (AppWorksComponents) making each available to the entire
+                // service, we only have a few to demonstrate some of the SDK
+                .phase("components", phaseTimeout, true, this::initialiseServiceComponents,
+                        ServiceReadiness.CLIENTS)
+                .phase("trustedProvider", phaseTimeout, true, this::initialiseTrustedProviderService,
+                        ServiceReadiness.CLIENTS)
+                // a missing Runtimes listing is filled in by the background refresh later
+                .phase("runtimes", phaseTimeout, false, this::listKnownRuntimes, "components")
+                .run(Integer.getInteger(ServiceConstants.STARTUP_THREADS_PROPERTY,
+                        ServiceConstants.DEFAULT_STARTUP_THREADS));
+
+        LOG.info(report.toString());
+        addComponents(report);
     }
 
     /**
@@ -51,33 +109,80 @@ public class ServiceBootstrapper extends GatewayClientRegistry.RegistryUser {
      */
     private void initialiseServiceSettings(String appName) {
         LOG.info("Starting SettingsService");
-        SettingsService settingsService = new SettingsService(gatewayClients().getSettingsClient());
-        AWComponentContext.add(settingsService);
+        SettingsService settingsService = new SettingsService(
+                SettingsGateway.guarded(SettingsGateway.timed(
+                        SettingsGateway.of(gatewayClients().getSettingsClient()), metrics), guard),
+                openSettingsSnapshot());
+        // serve the settings we last knew while we ask the Gateway for current ones
+        settingsService.restoreSnapshot();
+        addComponents(settingsService);
 
         // initialise the Setting
         settingsService.createServiceSettings(appName);
     }
 
+    private SettingsSnapshot openSettingsSnapshot() {
+        String defaultDir = new File(System.getProperty("catalina.base",
+                System.getProperty("java.io.tmpdir")), "myservice-settings").getPath();
+        String directory = System.getProperty(ServiceConstants.SETTINGS_SNAPSHOT_DIR_PROPERTY, defaultDir);
+        if (directory.isEmpty())
+            return null;
+
+        try {
+            return new SettingsSnapshot(new File(directory));
+        } catch (IOException e) {
+            LOG.warn("Unable to keep a settings snapshot in {} - {}", directory, e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Create our services that use SDK clients, we use the convenient GatewayRegistry
      * as this class is granted access to the full suite as a
      * {@link GatewayClientRegistry.RegistryUser}.
      */
     private void initialiseServiceComponents() {
+        LOG.info("Starting RuntimesRegistry");
+        RuntimesRegistry runtimesRegistry = new RuntimesRegistry(
+                RuntimesGateway.guarded(RuntimesGateway.timed(
+                        RuntimesGateway.of(gatewayClients().getRuntimesClient()), metrics), guard));
+
         LOG.info("Starting PushNotificationService");
         PushNotificationService pushNotificationService = new PushNotificationService(
-                gatewayClients().getNotificationsClient(),
-                gatewayClients().getRuntimesClient());
+                NotificationsGateway.guarded(NotificationsGateway.timed(
+                        NotificationsGateway.of(gatewayClients().getNotificationsClient()), metrics), guard),
+                runtimesRegistry);
 
         LOG.info("Starting MailerService");
-        MailerService mailerService = new MailerService(gatewayClients().getMailClient());
+        MailerService mailerService = new MailerService(
+                MailGateway.guarded(MailGateway.timed(
+                        MailGateway.of(gatewayClients().getMailClient()), metrics), guard));
+
+        LOG.info("Starting AuthTokenService");
+        AuthTokenService authTokenService = new AuthTokenService(
+                AuthGateway.guarded(AuthGateway.timed(
+                        AuthGateway.of(gatewayClients().getAuthClient()), metrics), guard));
 
+        // throw them into the context for later use
+        addComponents(runtimesRegistry, pushNotificationService, mailerService, authTokenService);
+        // started here rather than once the Runtimes are listed, that phase may be skipped
+        runtimesRegistry.start();
+        pushNotificationService.start();
+    }
+
+    /**
+     * Our trusted providers are looked up (and created if need be) as the
+     * {@link TrustedProviderService} is constructed, from then on it keeps its listing current
+     * in the background.
+     */
+    private void initialiseTrustedProviderService() {
         LOG.info("Starting TrustedProviderService");
         TrustedProviderService trustedProviderService = new TrustedProviderService(
-                gatewayClients().getTrustedProviderClient());
+                TrustedProviderGateway.guarded(TrustedProviderGateway.timed(
+                        TrustedProviderGateway.of(gatewayClients().getTrustedProviderClient()), metrics), guard));
 
-        // throw them into the context for later use
-        AWComponentContext.add(pushNotificationService, mailerService, trustedProviderService);
+        addComponents(trustedProviderService);
+        trustedProviderService.start();
     }
 
     /**
@@ -89,20 +194,31 @@ public class ServiceBootstrapper extends GatewayClientRegistry.RegistryUser {
      * @see PushNotificationService
      */
     private void listKnownRuntimes() {
-        RuntimesClient runtimesClient = new RuntimesClient();
+        RuntimesRegistry runtimesRegistry = AWComponentContext.getComponent(RuntimesRegistry.class);
+        if (runtimesRegistry == null) {
+            LOG.warn("RuntimesRegistry is unavailable, unable to list the known Runtimes");
+            return;
+        }
 
         try {
-            Runtimes allRuntimes = runtimesClient.getAllRuntimes();
-            List<Runtime> runtimes = allRuntimes.getRuntimes();
+            // the registry lists them as it starts, we wait for that rather than ask the Gateway again
+            RuntimesRegistry.Snapshot snapshot = runtimesRegistry.getFirstRefresh().join();
             LOG.info("Known Runtimes:");
-            LOG.info("The Gateway knows about " + runtimes.size() + " Runtimes");
-            runtimes.forEach(runtime -> LOG.info("- " + runtime));
+            LOG.info("The Gateway knows about " + snapshot.getNames().size() + " Runtimes");
+            snapshot.getRuntimesByName().values().forEach(runtime -> LOG.info("- " + runtime));
 
-        } catch (APIException e) {
-            String errMsg = String.format("Runtimes retrieval call failed - %s", e.getCallInfo());
-            LOG.error(errMsg, e);
+        } catch (CompletionException | CancellationException e) {
+            // the registry has logged why, it tries again at its next refresh
+            LOG.warn("The known Runtimes could not be listed yet");
         }
     }
 
+    /**
+     * Add components to the {@link AWComponentContext}, our startup phases run in parallel
+     * so we take care to add them one phase at a time.
+     */
+    private synchronized void addComponents(AWComponent... components) {
+        AWComponentContext.add(components);
+    }
 
 }
@@ -14,4 +14,216 @@ public class ServiceConstants {
 
     public static final String SOME_JSON_CONTENT = "{\"somefield\": \"Some value\"}";
 
+    // Tuning, each of these can be overridden with a JVM system property of the same name
+
+    public static final String SETTINGS_CACHE_TTL_MS_PROPERTY = "myservice.settings.cache.ttlMs";
+    public static final long DEFAULT_SETTINGS_CACHE_TTL_MS = 5 * 60 * 1000L;
+
+    public static final String SETTINGS_CACHE_REFRESH_AHEAD_MS_PROPERTY = "myservice.settings.cache.refreshAheadMs";
+    public static final long DEFAULT_SETTINGS_CACHE_REFRESH_AHEAD_MS = 4 * 60 * 1000L;
+
+    /**
+     * How long we remember that the Gateway holds no setting for a key.
+     */
+    public static final String SETTINGS_CACHE_NOT_FOUND_TTL_MS_PROPERTY = "myservice.settings.cache.notFoundTtlMs";
+    public static final long DEFAULT_SETTINGS_CACHE_NOT_FOUND_TTL_MS = 5 * 1000L;
+
+    /**
+     * Directory our local settings snapshot lives in, defaults to a folder under catalina.base.
+     * Set it to an empty value to turn the snapshot off.
+     */
+    public static final String SETTINGS_SNAPSHOT_DIR_PROPERTY = "myservice.settings.snapshot.dir";
+
+    public static final String SETTINGS_SNAPSHOT_WRITE_DELAY_MS_PROPERTY = "myservice.settings.snapshot.writeDelayMs";
+    public static final long DEFAULT_SETTINGS_SNAPSHOT_WRITE_DELAY_MS = 500L;
+
+    public static final String SETTINGS_FETCH_THREADS_PROPERTY = "myservice.settings.fetch.threads";
+    public static final int DEFAULT_SETTINGS_FETCH_THREADS = 8;
+
+    public static final String SETTINGS_FETCH_QUEUE_PROPERTY = "myservice.settings.fetch.queue";
+    public static final int DEFAULT_SETTINGS_FETCH_QUEUE = 64;
+
+    /**
+     * Comma separated list of the setting keys GET /api/configuration returns.
+     */
+    public static final String CONFIG_KEYS_PROPERTY = "myservice.config.keys";
+    public static final String DEFAULT_CONFIG_KEYS = OUR_STRING_SETTING_KEY + "," + OUR_NUMBER_SETTING_KEY +
+            "," + OUR_BOOL_SETTING_KEY + "," + OUR_JSON_SETTING_KEY;
+
+    public static final String CONFIG_DEADLINE_MS_PROPERTY = "myservice.config.deadlineMs";
+    public static final long DEFAULT_CONFIG_DEADLINE_MS = 2000L;
+
+    /**
+     * Most settings a single batch update may carry.
+     */
+    public static final String CONFIG_BATCH_MAX_SIZE_PROPERTY = "myservice.config.batch.maxSize";
+    public static final int DEFAULT_CONFIG_BATCH_MAX_SIZE = 100;
+
+    /**
+     * Most settings of a batch update we save at the Gateway at the same time.
+     */
+    public static final String SETTINGS_BATCH_PARALLELISM_PROPERTY = "myservice.settings.batch.parallelism";
+    public static final int DEFAULT_SETTINGS_BATCH_PARALLELISM = 4;
+
+    public static final String CONFIG_MAX_AGE_SECONDS_PROPERTY = "myservice.config.maxAgeSeconds";
+    public static final int DEFAULT_CONFIG_MAX_AGE_SECONDS = 0;
+
+    public static final String AUTH_TOKEN_CACHE_SIZE_PROPERTY = "myservice.auth.tokenCache.size";
+    public static final int DEFAULT_AUTH_TOKEN_CACHE_SIZE = 10000;
+
+    public static final String AUTH_TOKEN_CACHE_TTL_MS_PROPERTY = "myservice.auth.tokenCache.ttlMs";
+    public static final long DEFAULT_AUTH_TOKEN_CACHE_TTL_MS = 60 * 1000L;
+
+    public static final String AUTH_TOKEN_CACHE_NEGATIVE_TTL_MS_PROPERTY = "myservice.auth.tokenCache.negativeTtlMs";
+    public static final long DEFAULT_AUTH_TOKEN_CACHE_NEGATIVE_TTL_MS = 5 * 1000L;
+
+    public static final String RUNTIMES_REFRESH_INTERVAL_MS_PROPERTY = "myservice.runtimes.refreshIntervalMs";
+    public static final long DEFAULT_RUNTIMES_REFRESH_INTERVAL_MS = 5 * 60 * 1000L;
+
+    /**
+     * Comma separated names of the trusted providers we make sure exist, defaults to our own.
+     */
+    public static final String TRUSTED_PROVIDERS_REQUIRED_PROPERTY = "myservice.trustedProviders.required";
+
+    public static final String TRUSTED_PROVIDERS_REFRESH_INTERVAL_MS_PROPERTY =
+            "myservice.trustedProviders.refreshIntervalMs";
+    public static final long DEFAULT_TRUSTED_PROVIDERS_REFRESH_INTERVAL_MS = 5 * 60 * 1000L;
+
+    public static final String PUSH_QUEUE_PROPERTY = "myservice.push.queue";
+    public static final int DEFAULT_PUSH_QUEUE = 1000;
+
+    public static final String PUSH_WORKERS_PROPERTY = "myservice.push.workers";
+    public static final int DEFAULT_PUSH_WORKERS = 2;
+
+    public static final String PUSH_BATCH_SIZE_PROPERTY = "myservice.push.batchSize";
+    public static final int DEFAULT_PUSH_BATCH_SIZE = 100;
+
+    public static final String PUSH_LINGER_MS_PROPERTY = "myservice.push.lingerMs";
+    public static final long DEFAULT_PUSH_LINGER_MS = 50L;
+
+    /**
+     * One of {@link com.appworks.service.example.util.OverflowPolicy}.
+     */
+    public static final String PUSH_OVERFLOW_POLICY_PROPERTY = "myservice.push.overflowPolicy";
+
+    public static final String PUSH_BLOCK_TIMEOUT_MS_PROPERTY = "myservice.push.blockTimeoutMs";
+    public static final long DEFAULT_PUSH_BLOCK_TIMEOUT_MS = 1000L;
+
+    /**
+     * Directory the mail outbox journal lives in, defaults to a folder under catalina.base.
+     */
+    public static final String MAIL_OUTBOX_DIR_PROPERTY = "myservice.mail.outbox.dir";
+
+    public static final String MAIL_OUTBOX_FSYNC_PROPERTY = "myservice.mail.outbox.fsync";
+    public static final boolean DEFAULT_MAIL_OUTBOX_FSYNC = true;
+
+    public static final String MAIL_OUTBOX_BATCH_SIZE_PROPERTY = "myservice.mail.outbox.batchSize";
+    public static final int DEFAULT_MAIL_OUTBOX_BATCH_SIZE = 20;
+
+    public static final String MAIL_OUTBOX_MAX_ATTEMPTS_PROPERTY = "myservice.mail.outbox.maxAttempts";
+    public static final int DEFAULT_MAIL_OUTBOX_MAX_ATTEMPTS = 6;
+
+    public static final String MAIL_OUTBOX_BACKOFF_MS_PROPERTY = "myservice.mail.outbox.backoffMs";
+    public static final long DEFAULT_MAIL_OUTBOX_BACKOFF_MS = 1000L;
+
+    public static final String MAIL_OUTBOX_MAX_BACKOFF_MS_PROPERTY = "myservice.mail.outbox.maxBackoffMs";
+    public static final long DEFAULT_MAIL_OUTBOX_MAX_BACKOFF_MS = 5 * 60 * 1000L;
+
+    /**
+     * Recipients per mail request when a bulk email is split up, see
+     * {@link com.appworks.service.example.services.MailerService#sendBulkEmail}.
+     */
+    public static final String MAIL_BULK_CHUNK_SIZE_PROPERTY = "myservice.mail.bulk.chunkSize";
+    public static final int DEFAULT_MAIL_BULK_CHUNK_SIZE = 50;
+
+    public static final String MAIL_BULK_PARALLELISM_PROPERTY = "myservice.mail.bulk.parallelism";
+    public static final int DEFAULT_MAIL_BULK_PARALLELISM = 4;
+
+    public static final String MAIL_BULK_CHUNKS_PER_SECOND_PROPERTY = "myservice.mail.bulk.chunksPerSecond";
+    public static final int DEFAULT_MAIL_BULK_CHUNKS_PER_SECOND = 10;
+
+    public static final String MAIL_BULK_MAX_ATTEMPTS_PROPERTY = "myservice.mail.bulk.maxAttempts";
+    public static final int DEFAULT_MAIL_BULK_MAX_ATTEMPTS = 3;
+
+    public static final String MAIL_BULK_BACKOFF_MS_PROPERTY = "myservice.mail.bulk.backoffMs";
+    public static final long DEFAULT_MAIL_BULK_BACKOFF_MS = 2000L;
+
+    public static final String SETTING_CHANGE_QUIET_MS_PROPERTY = "myservice.settings.change.quietMs";
+    public static final long DEFAULT_SETTING_CHANGE_QUIET_MS = 500L;
+
+    public static final String SETTING_CHANGE_MAX_WAIT_MS_PROPERTY = "myservice.settings.change.maxWaitMs";
+    public static final long DEFAULT_SETTING_CHANGE_MAX_WAIT_MS = 5000L;
+
+    /**
+     * Threads setting changes are handled on, changes to one key are always handled by the same thread.
+     */
+    public static final String SETTING_CHANGE_STRIPES_PROPERTY = "myservice.settings.change.stripes";
+    public static final int DEFAULT_SETTING_CHANGE_STRIPES = 4;
+
+    public static final String SETTING_CHANGE_QUEUE_PROPERTY = "myservice.settings.change.queue";
+    public static final int DEFAULT_SETTING_CHANGE_QUEUE = 256;
+
+    /**
+     * One of {@link com.appworks.service.example.util.OverflowPolicy}, defaults to DROP_OLDEST.
+     */
+    public static final String SETTING_CHANGE_OVERFLOW_POLICY_PROPERTY = "myservice.settings.change.overflowPolicy";
+
+    public static final String SETTING_CHANGE_BLOCK_TIMEOUT_MS_PROPERTY = "myservice.settings.change.blockTimeoutMs";
+    public static final long DEFAULT_SETTING_CHANGE_BLOCK_TIMEOUT_MS = 100L;
+
+    public static final String STARTUP_THREADS_PROPERTY = "myservice.startup.threads";
+    public static final int DEFAULT_STARTUP_THREADS = 4;
+
+    public static final String STARTUP_PHASE_TIMEOUT_MS_PROPERTY = "myservice.startup.phaseTimeoutMs";
+    public static final long DEFAULT_STARTUP_PHASE_TIMEOUT_MS = 60 * 1000L;
+
+    public static final String GATEWAY_BREAKER_FAILURE_THRESHOLD_PROPERTY = "myservice.gateway.breaker.failureThreshold";
+    public static final int DEFAULT_GATEWAY_BREAKER_FAILURE_THRESHOLD = 5;
+
+    public static final String GATEWAY_BREAKER_OPEN_MS_PROPERTY = "myservice.gateway.breaker.openMs";
+    public static final long DEFAULT_GATEWAY_BREAKER_OPEN_MS = 10 * 1000L;
+
+    public static final String GATEWAY_BREAKER_SLOW_CALL_MS_PROPERTY = "myservice.gateway.breaker.slowCallMs";
+    public static final long DEFAULT_GATEWAY_BREAKER_SLOW_CALL_MS = 5 * 1000L;
+
+    public static final String GATEWAY_BULKHEAD_MAX_CONCURRENT_PROPERTY = "myservice.gateway.bulkhead.maxConcurrent";
+    public static final int DEFAULT_GATEWAY_BULKHEAD_MAX_CONCURRENT = 16;
+
+    public static final String GATEWAY_BULKHEAD_MAX_WAIT_MS_PROPERTY = "myservice.gateway.bulkhead.maxWaitMs";
+    public static final long DEFAULT_GATEWAY_BULKHEAD_MAX_WAIT_MS = 100L;
+
+    public static final String API_THREADS_PROPERTY = "myservice.api.threads";
+    public static final int DEFAULT_API_THREADS = 32;
+
+    public static final String API_QUEUE_PROPERTY = "myservice.api.queue";
+    public static final int DEFAULT_API_QUEUE = 128;
+
+    public static final String API_TIMEOUT_MS_PROPERTY = "myservice.api.timeoutMs";
+    public static final long DEFAULT_API_TIMEOUT_MS = 5 * 1000L;
+
+    /**
+     * The Retry-After we send with the 503 answering requests while the service starts or stops.
+     */
+    public static final String API_NOT_READY_RETRY_AFTER_MS_PROPERTY = "myservice.api.notReadyRetryAfterMs";
+    public static final long DEFAULT_API_NOT_READY_RETRY_AFTER_MS = 5 * 1000L;
+
+    /**
+     * Recent setting changes kept so a client reconnecting to GET /api/configuration/stream
+     * with a Last-Event-ID misses nothing.
+     */
+    public static final String STREAM_REPLAY_SIZE_PROPERTY = "myservice.stream.replaySize";
+    public static final int DEFAULT_STREAM_REPLAY_SIZE = 256;
+
+    public static final String STREAM_MAX_SUBSCRIBERS_PROPERTY = "myservice.stream.maxSubscribers";
+    public static final int DEFAULT_STREAM_MAX_SUBSCRIBERS = 10000;
+
+    public static final String STREAM_MAX_PENDING_PROPERTY = "myservice.stream.maxPending";
+    public static final int DEFAULT_STREAM_MAX_PENDING = 1024;
+
+    public static final String STREAM_HEARTBEAT_MS_PROPERTY = "myservice.stream.heartbeatMs";
+    public static final long DEFAULT_STREAM_HEARTBEAT_MS = 15 * 1000L;
+
+    public static final String STREAM_WRITERS_PROPERTY = "myservice.stream.writers";
+    public static final int DEFAULT_STREAM_WRITERS = 2;
+
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Whether the service, and each part of it our startup brings up, is ready to serve. The
+ * {@link AppWorksService} and {@link ServiceBootstrapper} advance the states as the service
+ * starts and stops, our resources read them on every request so reads are a single volatile
+ * load, no locks are taken.
+ * <p>
+ * The service moves from {@link State#STARTING} to {@link State#READY} (or
+ * {@link State#FAILED}), then through {@link State#STOPPING} to {@link State#STOPPED}. A part
+ * can be ready well before the service is, our settings are served as soon as they are loaded.
+ * <p>
+ * Our webapp may be started again once it has stopped. The components of the previous run are
+ * still in the {@code AWComponentContext} until the new ones replace them, so on a restart we
+ * serve nothing until the service is ready again.
+ */
+public final class ServiceReadiness {
+
+    /**
+     * The name the startup phase creating our SDK clients reports under, see {@link ServiceBootstrapper}.
+     */
+    public static final String CLIENTS = "clients";
+
+    public enum State {
+        STARTING, READY, FAILED, STOPPING, STOPPED;
+
+        private Set<State> next() {
+            switch (this) {
+                case STARTING:
+                    return EnumSet.of(READY, FAILED, STOPPING);
+                case READY:
+                case FAILED:
+                    return EnumSet.of(STOPPING);
+                case STOPPING:
+                    return EnumSet.of(STOPPED);
+                default:
+                    // our webapp may be started again in the same container
+                    return EnumSet.of(STARTING);
+            }
+        }
+    }
+
+    private static final AtomicReference<Status> SERVICE =
+            new AtomicReference<>(new Status(State.STARTING, null, false));
+    private static final ConcurrentMap<String, Status> PARTS = new ConcurrentHashMap<>();
+
+    private ServiceReadiness() {
+    }
+
+    public static State getState() {
+        return SERVICE.get().state;
+    }
+
+    /**
+     * @return true if the service is ready, or starting for the first time, we serve nothing
+     * while it is stopping, after it failed to start, or while it starts again after a stop
+     */
+    public static boolean isServing() {
+        Status status = SERVICE.get();
+        return status.state == State.READY || (status.state == State.STARTING && !status.restart);
+    }
+
+    /**
+     * @return the state of the service and each of its parts
+     */
+    public static Health getHealth() {
+        return new Health(SERVICE.get(), new TreeMap<>(PARTS));
+    }
+
+    /**
+     * Move the service on to its next state.
+     *
+     * @param next   the new state
+     * @param detail why, if it is not obvious
+     * @return false if the service can't move to that state from where it is
+     */
+    static boolean moveTo(State next, String detail) {
+        Status current;
+        do {
+            current = SERVICE.get();
+            if (!current.state.next().contains(next))
+                return false;
+        } while (!SERVICE.compareAndSet(current, new Status(next, detail, next == State.STARTING)));
+
+        if (next == State.STARTING)
+            PARTS.clear();
+        return true;
+    }
+
+    static void partStarting(String part) {
+        PARTS.put(part, new Status(State.STARTING, null, false));
+    }
+
+    static void partFinished(StartupReport.PhaseResult result) {
+        if (result.getOutcome() == StartupReport.Outcome.OK) {
+            PARTS.put(result.getName(), new Status(State.READY, null, false));
+        } else {
+            String error = result.getError() == null ? "" : " - " + result.getError();
+            PARTS.put(result.getName(), new Status(State.FAILED, result.getOutcome() + error, false));
+        }
+    }
+
+    /**
+     * A state and when it was entered.
+     */
+    public static final class Status {
+
+        private final State state;
+        private final String detail;
+        private final long since = System.currentTimeMillis();
+        // starting again after a stop, the previous run's components are still registered
+        private final boolean restart;
+
+        private Status(State state, String detail, boolean restart) {
+            this.state = state;
+            this.detail = detail;
+            this.restart = restart;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return why a part failed, null otherwise
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        public long getSince() {
+            return since;
+        }
+
+    }
+
+    /**
+     * Point in time view of the service and its parts.
+     */
+    public static final class Health {
+
+        private final Status service;
+        private final Map<String, Status> parts;
+
+        private Health(Status service, Map<String, Status> parts) {
+            this.service = service;
+            this.parts = Collections.unmodifiableMap(parts);
+        }
+
+        public State getState() {
+            return service.state;
+        }
+
+        public long getSince() {
+            return service.since;
+        }
+
+        public String getDetail() {
+            return service.detail;
+        }
+
+        /**
+         * @return the state of each part, by name
+         */
+        public Map<String, Status> getComponents() {
+            return parts;
+        }
+
+    }
+
+}
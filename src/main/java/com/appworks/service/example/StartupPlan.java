@@ -0,0 +1,190 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example;
+
+import com.appworks.service.example.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A small dependency graph of startup phases. Each phase starts as soon as the phases it
+ * depends on have completed, phases without a dependency between them run in parallel.
+ * Every phase is timed and has its own timeout, if a phase fails or times out the phases
+ * depending on it are skipped.
+ */
+class StartupPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupPlan.class);
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private Listener listener = new Listener() {
+    };
+
+    /**
+     * Add a phase to the plan, its dependencies must already be part of the plan.
+     *
+     * @param name          phase name
+     * @param timeoutMillis how long the phase may take
+     * @param required      whether the startup fails if this phase does not complete
+     * @param action        the work of the phase
+     * @param dependsOn     names of the phases that must complete first
+     * @return this plan
+     */
+    StartupPlan phase(String name, long timeoutMillis, boolean required, Runnable action, String... dependsOn) {
+        List<Phase> dependencies = new ArrayList<>(dependsOn.length);
+        for (String dependency : dependsOn) {
+            Phase phase = phases.get(dependency);
+            if (phase == null)
+                throw new IllegalArgumentException("Unknown startup phase " + dependency);
+            dependencies.add(phase);
+        }
+        phases.put(name, new Phase(name, timeoutMillis, required, action, dependencies));
+        return this;
+    }
+
+    /**
+     * @param listener told as each phase starts and ends
+     * @return this plan
+     */
+    StartupPlan listener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Run all of the phases, waiting for them to finish.
+     *
+     * @param threads how many phases may run at once
+     * @return the startup report
+     * @throws IllegalStateException if a required phase did not complete, the message
+     *                               holds the report
+     */
+    StartupReport run(int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("startup"));
+        ScheduledExecutorService watchdog =
+                Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("startup-watchdog"));
+        long start = System.nanoTime();
+
+        try {
+            for (Phase phase : phases.values()) {
+                // the result is set before the phase is done, whichever way it ends
+                phase.done.whenComplete((ignored, error) -> listener.phaseFinished(phase.result));
+                schedule(phase, executor, watchdog, start);
+            }
+
+            List<StartupReport.PhaseResult> results = new ArrayList<>(phases.size());
+            boolean requiredFailed = false;
+            for (Phase phase : phases.values()) {
+                // a phase always ends, by completing, failing, timing out or being skipped
+                phase.done.exceptionally(e -> null).join();
+                results.add(phase.result);
+                requiredFailed |= phase.required && phase.result.getOutcome() != StartupReport.Outcome.OK;
+            }
+
+            StartupReport report = new StartupReport(results,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (requiredFailed)
+                throw new IllegalStateException(report.toString());
+            return report;
+        } finally {
+            executor.shutdown();
+            watchdog.shutdownNow();
+        }
+    }
+
+    private void schedule(Phase phase, ExecutorService executor, ScheduledExecutorService watchdog, long planStart) {
+        CompletableFuture<?>[] dependencies = phase.dependencies.stream()
+                .map(dependency -> dependency.done)
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(dependencies).whenComplete((ignored, dependencyFailure) -> {
+            if (dependencyFailure != null) {
+                phase.finish(StartupReport.Outcome.SKIPPED, planStart, System.nanoTime(),
+                        "a phase it depends on did not complete", dependencyFailure);
+                return;
+            }
+
+            executor.execute(() -> {
+                listener.phaseStarted(phase.name);
+                long phaseStart = System.nanoTime();
+                watchdog.schedule(() -> phase.finish(StartupReport.Outcome.TIMED_OUT, planStart, phaseStart,
+                        "did not complete within " + phase.timeoutMillis + "ms", new TimeoutException()),
+                        phase.timeoutMillis, TimeUnit.MILLISECONDS);
+                try {
+                    phase.action.run();
+                    phase.finish(StartupReport.Outcome.OK, planStart, phaseStart, null, null);
+                } catch (RuntimeException e) {
+                    LOG.error("Startup phase " + phase.name + " failed", e);
+                    phase.finish(StartupReport.Outcome.FAILED, planStart, phaseStart, e.getMessage(), e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Follows the progress of a running plan.
+     */
+    interface Listener {
+
+        default void phaseStarted(String name) {
+        }
+
+        default void phaseFinished(StartupReport.PhaseResult result) {
+        }
+
+    }
+
+    private static final class Phase {
+
+        private final String name;
+        private final long timeoutMillis;
+        private final boolean required;
+        private final Runnable action;
+        private final List<Phase> dependencies;
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile StartupReport.PhaseResult result;
+
+        private Phase(String name, long timeoutMillis, boolean required, Runnable action, List<Phase> dependencies) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.required = required;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        private synchronized void finish(StartupReport.Outcome outcome, long planStart, long phaseStart,
+                                         String error, Throwable cause) {
+            // the first outcome wins, a phase that completes after timing out stays timed out
+            if (done.isDone())
+                return;
+
+            long now = System.nanoTime();
+            result = new StartupReport.PhaseResult(name, outcome,
+                    TimeUnit.NANOSECONDS.toMillis(phaseStart - planStart),
+                    TimeUnit.NANOSECONDS.toMillis(now - phaseStart), error);
+            LOG.info("Startup phase {}", result);
+
+            if (outcome == StartupReport.Outcome.OK) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(cause instanceof CompletionException ? cause.getCause() : cause);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example;
+
+import com.opentext.otag.service.context.components.AWComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome and latency of each phase of our startup, see {@link ServiceBootstrapper}. The
+ * report of the last startup is kept in the
+ * {@link com.opentext.otag.service.context.components.AWComponentContext}.
+ */
+public class StartupReport implements AWComponent {
+
+    /**
+     * How a startup phase ended.
+     */
+    public enum Outcome {
+        OK, FAILED, TIMED_OUT, SKIPPED
+    }
+
+    private final List<PhaseResult> phases;
+    private final long totalMillis;
+
+    public StartupReport(List<PhaseResult> phases, long totalMillis) {
+        this.phases = Collections.unmodifiableList(new ArrayList<>(phases));
+        this.totalMillis = totalMillis;
+    }
+
+    public List<PhaseResult> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return wall clock time from the start of the first phase to the end of the last
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Startup took ").append(totalMillis).append("ms");
+        phases.forEach(phase -> sb.append(", ").append(phase));
+        return sb.toString();
+    }
+
+    /**
+     * The outcome of a single phase.
+     */
+    public static final class PhaseResult {
+
+        private final String name;
+        private final Outcome outcome;
+        private final long startOffsetMillis;
+        private final long durationMillis;
+        private final String error;
+
+        public PhaseResult(String name, Outcome outcome, long startOffsetMillis,
+                           long durationMillis, String error) {
+            this.name = name;
+            this.outcome = outcome;
+            this.startOffsetMillis = startOffsetMillis;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return when the phase started, relative to the start of the startup
+         */
+        public long getStartOffsetMillis() {
+            return startOffsetMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + outcome + " in " + durationMillis + "ms (+" + startOffsetMillis + "ms)" +
+                    (error != null ? " - " + error : "");
+        }
+
+    }
+
+}
@@ -3,15 +3,31 @@
  */
 package com.appworks.service.example.api;
 
-import com.opentext.otag.sdk.client.v3.AbstractOtagServiceClient;
-import com.opentext.otag.sdk.client.v3.AuthClient;
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.ServiceReadiness;
+import com.appworks.service.example.services.AuthTokenService;
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.MailerService;
+import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.RequestExecutor;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.appworks.service.example.services.SettingChangeDispatcher;
+import com.appworks.service.example.services.SettingsChangeBroadcaster;
+import com.appworks.service.example.services.SettingsService;
 import com.opentext.otag.sdk.client.v3.GatewayClientRegistry;
-import com.opentext.otag.sdk.client.v3.SettingsClient;
+import com.opentext.otag.service.context.components.AWComponent;
+import com.opentext.otag.service.context.components.AWComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 /**
@@ -29,29 +45,181 @@ public abstract class AbstractResource extends GatewayClientRegistry.RegistryUse
 
     // Guard methods to ensure we can get the services we need
 
-    protected SettingsClient getSettingsClient() {
-        return getComponent(() -> gatewayClients().getSettingsClient());
+    /**
+     * Get our settings component, it serves reads from its local cache.
+     *
+     * @return the settings service
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected SettingsService getSettingsService() {
+        return getAwComponent(SettingsService.class);
+    }
+
+    /**
+     * Get our token validation component, it remembers recently validated tokens.
+     *
+     * @return the auth token service
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected AuthTokenService getAuthTokenService() {
+        return getAwComponent(AuthTokenService.class);
+    }
+
+    /**
+     * Get our SDK call and endpoint metrics.
+     *
+     * @return the service metrics
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected ServiceMetrics getServiceMetrics() {
+        return getAwComponent(ServiceMetrics.class);
+    }
+
+    /**
+     * Get the bulkheads and circuit breakers our Gateway calls go through.
+     *
+     * @return the gateway guard
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected GatewayGuard getGatewayGuard() {
+        return getAwComponent(GatewayGuard.class);
+    }
+
+    /**
+     * Get our mail component, it sends and queues the service's email.
+     *
+     * @return the mailer service
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected MailerService getMailerService() {
+        return getAwComponent(MailerService.class);
+    }
+
+    /**
+     * Get our push notification component, it queues and sends notifications in batches.
+     *
+     * @return the push notification service
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected PushNotificationService getPushNotificationService() {
+        return getAwComponent(PushNotificationService.class);
+    }
+
+    /**
+     * Get the pool our suspended requests are answered from.
+     *
+     * @return the request executor
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected RequestExecutor getRequestExecutor() {
+        return getAwComponent(RequestExecutor.class);
+    }
 
+    /**
+     * Get the broadcaster that streams setting changes to our clients.
+     *
+     * @return the settings change broadcaster
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected SettingsChangeBroadcaster getSettingsChangeBroadcaster() {
+        return getAwComponent(SettingsChangeBroadcaster.class);
     }
 
-    protected AuthClient getAuthClient() {
-        return getComponent(() -> gatewayClients().getAuthClient());
+    /**
+     * Get the dispatcher our setting change handling runs on.
+     *
+     * @return the setting change dispatcher
+     * @throws WebApplicationException if the service has not been bootstrapped yet
+     */
+    protected SettingChangeDispatcher getSettingChangeDispatcher() {
+        return getAwComponent(SettingChangeDispatcher.class);
     }
 
     /**
-     * Wrap calls to retrieve an SDK ({@link AbstractOtagServiceClient}) client.
+     * Answer a suspended request from our {@link RequestExecutor}, releasing the container thread.
+     * Requests we have no room for, or that take longer than the executor's timeout, are
+     * answered with a 503.
      *
-     * @return the SDK client
-     * @throws WebApplicationException if we can't get the service we need
+     * @param asyncResponse the suspended response
+     * @param work          builds the response, runs on one of our request workers
      */
-    private <T extends AbstractOtagServiceClient> T getComponent(Supplier<T> getter) {
+    protected void respondAsync(AsyncResponse asyncResponse, Supplier<Response> work) {
+        RequestExecutor executor;
         try {
-            return getter.get();
-        } catch (Exception e) {
-            LOG.error("Cannot get the required SDK client yet?", e);
-            throw new WebApplicationException(SERVICE_IS_YET_TO_INITIALISE_ERR,
-                    Response.Status.INTERNAL_SERVER_ERROR);
+            executor = getRequestExecutor();
+        } catch (WebApplicationException e) {
+            asyncResponse.resume(e);
+            return;
         }
+
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        asyncResponse.setTimeoutHandler(timedOut -> {
+            executor.onTimeout();
+            // drop it if it is still queued, a running request finishes but its answer is discarded
+            Future<?> queued = task.get();
+            if (queued != null)
+                queued.cancel(false);
+            timedOut.resume(serviceUnavailable(0L));
+        });
+        asyncResponse.setTimeout(executor.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+        try {
+            task.set(executor.submit(() -> {
+                if (asyncResponse.isDone())
+                    return;
+                try {
+                    asyncResponse.resume(work.get());
+                } catch (RuntimeException e) {
+                    // mapped to a response by JAX-RS as if we had thrown it
+                    asyncResponse.resume(e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Turning request away, our request workers are all busy");
+            asyncResponse.resume(serviceUnavailable(0L));
+        }
+    }
+
+    /**
+     * Tell the client we can't answer while the Gateway is unavailable, and when to try again.
+     *
+     * @param retryAfterMillis when the Gateway will next be called
+     * @return 503 response
+     */
+    protected Response serviceUnavailable(long retryAfterMillis) {
+        return unavailable(retryAfterMillis).build();
+    }
+
+    /**
+     * @param retryAfterMillis when the client should try again, rounded up to whole seconds
+     * @return 503 response builder carrying a Retry-After header
+     */
+    static Response.ResponseBuilder unavailable(long retryAfterMillis) {
+        long retryAfterSeconds = Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999L));
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+    }
+
+    /**
+     * Retrieve one of our own components from the {@link AWComponentContext}.
+     *
+     * @return the component
+     * @throws WebApplicationException 503 if the component has not been added yet, or the
+     *                                  service is stopping
+     */
+    private <T extends AWComponent> T getAwComponent(Class<T> type) {
+        if (!ServiceReadiness.isServing())
+            throw notReady();
+        T component = AWComponentContext.getComponent(type);
+        if (component == null)
+            throw notReady();
+        return component;
+    }
+
+    private ServiceNotReadyException notReady() {
+        return new ServiceNotReadyException(serviceUnavailable(
+                Long.getLong(ServiceConstants.API_NOT_READY_RETRY_AFTER_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_API_NOT_READY_RETRY_AFTER_MS)));
     }
 
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import com.appworks.service.example.services.SettingValue;
+
+import javax.ws.rs.core.EntityTag;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Computes strong {@link EntityTag}s for our configuration responses from the keys, values
+ * and sequence numbers of the Settings they are built from, so clients can poll with
+ * {@code If-None-Match} and receive a 304 while nothing has changed.
+ */
+final class ConfigEntityTags {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // 128 bits of the digest is plenty to tell our payloads apart
+    private static final int TAG_BYTES = 16;
+
+    private ConfigEntityTags() {
+    }
+
+    /**
+     * @param settings the Settings a response is built from, in response order
+     * @return a strong entity tag for the response
+     */
+    static EntityTag of(Collection<SettingValue> settings) {
+        MessageDigest digest = sha256();
+        for (SettingValue setting : settings)
+            update(digest, setting);
+        return new EntityTag(toHex(digest.digest()));
+    }
+
+    /**
+     * @param setting the Setting a response is built from
+     * @return a strong entity tag for the response
+     */
+    static EntityTag of(SettingValue setting) {
+        MessageDigest digest = sha256();
+        update(digest, setting);
+        return new EntityTag(toHex(digest.digest()));
+    }
+
+    private static void update(MessageDigest digest, SettingValue setting) {
+        // separate the fields so "ab" + "c" and "a" + "bc" differ
+        digest.update(String.valueOf(setting.getKey()).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(setting.getRaw()).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(setting.getSeqNo()).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 1);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[TAG_BYTES * 2];
+        for (int i = 0; i < TAG_BYTES; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+}
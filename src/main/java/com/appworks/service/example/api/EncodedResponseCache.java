@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds our configuration payloads already serialised to JSON, and gzipped, so a request
+ * for unchanged configuration is answered by copying bytes rather than by serialising
+ * the response again. Each entry is tied to the {@link EntityTag} of the settings it was
+ * built from and is rebuilt the first time it is asked for with a different tag.
+ * <p>
+ * The two encodings are different representations, so the gzipped one is sent with the
+ * settings tag plus a {@code -gzip} suffix. A client holding either one is up to date.
+ */
+final class EncodedResponseCache {
+
+    private static final String GZIP = "gzip";
+    private static final String GZIP_TAG_SUFFIX = "-" + GZIP;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, EncodedEntity> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Check the request's preconditions against the tag of the encoding we would send, and
+     * against the other encoding's tag, as the client may have cached either.
+     *
+     * @param request        the request
+     * @param etag           entity tag of the settings the payload is built from
+     * @param acceptEncoding the clients Accept-Encoding header, may be null
+     * @return a 304 response builder, null if the client needs the payload
+     */
+    static Response.ResponseBuilder notModified(Request request, EntityTag etag, String acceptEncoding) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tagFor(etag, gzip));
+        if (notModified == null)
+            notModified = request.evaluatePreconditions(tagFor(etag, !gzip));
+        return notModified;
+    }
+
+    /**
+     * Build a 200 response for a payload, using the cached bytes when they were built for
+     * the same entity tag.
+     *
+     * @param name           name of the payload, e.g. the setting key
+     * @param etag           entity tag of the settings the payload is built from
+     * @param payload        builds the payload if we need to serialise it
+     * @param acceptEncoding the clients Accept-Encoding header, may be null
+     * @return a response builder carrying the encoded bytes and their headers
+     */
+    Response.ResponseBuilder ok(String name, EntityTag etag, Supplier<Object> payload, String acceptEncoding) {
+        EncodedEntity entity = entries.get(name);
+        if (entity == null || !entity.etag.equals(etag)) {
+            entity = encode(etag, payload.get());
+            entries.put(name, entity);
+        }
+
+        boolean gzip = acceptsGzip(acceptEncoding);
+        Response.ResponseBuilder builder = Response.ok()
+                .type(MediaType.APPLICATION_JSON)
+                .tag(tagFor(etag, gzip))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return builder.entity(entity.gzip).header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return builder.entity(entity.identity);
+    }
+
+    private EncodedEntity encode(EntityTag etag, Object payload) {
+        try {
+            byte[] identity = mapper.writeValueAsBytes(payload);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.length / 2 + 32);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(identity);
+            }
+            return new EncodedEntity(etag, identity, compressed.toByteArray());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialise configuration payload", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static EntityTag tagFor(EntityTag etag, boolean gzip) {
+        return gzip ? new EntityTag(etag.getValue() + GZIP_TAG_SUFFIX) : etag;
+    }
+
+    /**
+     * @return true unless the client did not offer gzip, or gave it a q value of 0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!GZIP.equalsIgnoreCase(name) && !"x-gzip".equalsIgnoreCase(name))
+                continue;
+
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static final class EncodedEntity {
+
+        private final EntityTag etag;
+        private final byte[] identity;
+        private final byte[] gzip;
+
+        private EncodedEntity(EntityTag etag, byte[] identity, byte[] gzip) {
+            this.etag = etag;
+            this.identity = identity;
+            this.gzip = gzip;
+        }
+
+    }
+
+}
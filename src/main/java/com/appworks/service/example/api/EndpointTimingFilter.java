@@ -0,0 +1,47 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.service.context.components.AWComponentContext;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+
+/**
+ * Records how long each of our resource methods takes to answer in the {@link ServiceMetrics},
+ * 5xx responses are counted as errors. Requests that matched no resource method are not recorded.
+ */
+@Provider
+public class EndpointTimingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String STARTED_PROPERTY = EndpointTimingFilter.class.getName() + ".started";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(STARTED_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object started = requestContext.getProperty(STARTED_PROPERTY);
+        Method method = resourceInfo.getResourceMethod();
+        ServiceMetrics metrics = AWComponentContext.getComponent(ServiceMetrics.class);
+        if (!(started instanceof Long) || method == null || metrics == null)
+            return;
+
+        metrics.recordEndpoint(resourceInfo.getResourceClass().getSimpleName() + "." + method.getName(),
+                System.nanoTime() - (Long) started, responseContext.getStatus() >= 500);
+    }
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.ServiceReadiness;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Whether the service is ready, for load balancers and our deployment tooling. Answered from
+ * {@link ServiceReadiness} alone, so it works while the rest of the service is starting.
+ */
+@Path("health")
+public class HealthResource {
+
+    /**
+     * The state of the service and of each part of its startup, a 503 until it is ready.
+     *
+     * @return health
+     */
+    // GET {base_url}/api/health
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHealth() {
+        ServiceReadiness.Health health = ServiceReadiness.getHealth();
+        if (health.getState() == ServiceReadiness.State.READY)
+            return Response.ok(health).build();
+
+        long retryAfterMillis = Long.getLong(ServiceConstants.API_NOT_READY_RETRY_AFTER_MS_PROPERTY,
+                ServiceConstants.DEFAULT_API_NOT_READY_RETRY_AFTER_MS);
+        return AbstractResource.unavailable(retryAfterMillis).entity(health).build();
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.MailOutbox;
+import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.RequestExecutor;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.appworks.service.example.services.SettingsChangeBroadcaster;
+import com.appworks.service.example.util.StripedExecutor;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Latency and error counts for the SDK calls we make to the Gateway and for our own endpoints.
+ * JSON by default, Prometheus text format for clients that ask for {@code text/plain}.
+ *
+ * @see ServiceMetrics
+ */
+@Path("metrics")
+public class MetricsResource extends AbstractResource {
+
+    /**
+     * The content type Prometheus scrapes.
+     */
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4";
+
+    // GET {base_url}/api/metrics
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public ServiceMetrics.MetricsSnapshot getMetrics() {
+        return getServiceMetrics().getSnapshot();
+    }
+
+    /**
+     * The state of the circuit breakers and bulkheads our Gateway calls go through.
+     *
+     * @return breaker and bulkhead stats
+     */
+    // GET {base_url}/api/metrics/gateway
+    @GET
+    @Path("gateway")
+    @Produces(MediaType.APPLICATION_JSON)
+    public GatewayGuard.GuardStats getGatewayGuardStats() {
+        return getGatewayGuard().getStats();
+    }
+
+    /**
+     * How many requests our request pool is working on and how many are waiting for it.
+     *
+     * @return request stats
+     */
+    // GET {base_url}/api/metrics/requests
+    @GET
+    @Path("requests")
+    @Produces(MediaType.APPLICATION_JSON)
+    public RequestExecutor.RequestStats getRequestStats() {
+        return getRequestExecutor().getStats();
+    }
+
+    /**
+     * How many clients are streaming our setting changes.
+     *
+     * @return stream stats
+     */
+    // GET {base_url}/api/metrics/stream
+    @GET
+    @Path("stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    public SettingsChangeBroadcaster.StreamStats getStreamStats() {
+        return getSettingsChangeBroadcaster().getStats();
+    }
+
+    /**
+     * How far behind our setting change handling is and how long it takes.
+     *
+     * @return setting change handler stats
+     */
+    // GET {base_url}/api/metrics/changes
+    @GET
+    @Path("changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public StripedExecutor.StripeStats getSettingChangeStats() {
+        return getSettingChangeDispatcher().getStats();
+    }
+
+    /**
+     * How much mail our outbox holds, how fast it is sending and how much it has had to retry
+     * or give up on.
+     *
+     * @return outbox stats, no content if the outbox could not be opened
+     */
+    // GET {base_url}/api/metrics/mail
+    @GET
+    @Path("mail")
+    @Produces(MediaType.APPLICATION_JSON)
+    public MailOutbox.OutboxStats getMailOutboxStats() {
+        return getMailerService().getOutboxStats();
+    }
+
+    /**
+     * How many push notifications are queued, how many were dropped and how the batches
+     * sent to the Gateway are doing.
+     *
+     * @return push notification stats
+     */
+    // GET {base_url}/api/metrics/push
+    @GET
+    @Path("push")
+    @Produces(MediaType.APPLICATION_JSON)
+    public PushNotificationService.PushStats getPushStats() {
+        return getPushNotificationService().getStats();
+    }
+
+    // GET {base_url}/api/metrics with Accept: text/plain
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public String getPrometheusMetrics() {
+        return getServiceMetrics().toPrometheus();
+    }
+
+}
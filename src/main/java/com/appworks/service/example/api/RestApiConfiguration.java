@@ -4,6 +4,7 @@
 package com.appworks.service.example.api;
 
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 
 public class RestApiConfiguration extends ResourceConfig {
@@ -13,6 +14,8 @@ public class RestApiConfiguration extends ResourceConfig {
         packages("com.appworks.service.example.api");
         // use Jackson as the JSON marshalling implementation
         register(JacksonJsonProvider.class);
+        // setting changes are streamed as Server-Sent Events
+        register(SseFeature.class);
     }
 
 }
@@ -0,0 +1,26 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.api;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Turns a request away while the service is starting or stopping. Thrown for every such
+ * request, possibly thousands a second during a redeploy, so it carries no stack trace.
+ *
+ * @see com.appworks.service.example.ServiceReadiness
+ */
+class ServiceNotReadyException extends WebApplicationException {
+
+    ServiceNotReadyException(Response response) {
+        super(AbstractResource.SERVICE_IS_YET_TO_INITIALISE_ERR, response);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
@@ -3,28 +3,48 @@
  */
 package com.appworks.service.example.api;
 
-import com.opentext.otag.sdk.client.v3.AuthClient;
-import com.opentext.otag.sdk.client.v3.SettingsClient;
+import com.appworks.service.example.gateway.GatewayUnavailableException;
+import com.appworks.service.example.services.SettingValue;
+import com.appworks.service.example.services.SettingsService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opentext.otag.sdk.types.v3.api.error.APIException;
 import com.opentext.otag.sdk.types.v3.settings.Setting;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static com.appworks.service.example.ServiceConstants.*;
 
 /**
  * Simple example of a Jersey JAX-RS resource class. It asks the Gateway for its
  * Settings values (in a similar way to the admin UI) and relays them via a GET.
- * These are just some arbitrary example configuration settings.
+ * These are just some arbitrary example configuration settings. Reads are served by
+ * the {@link SettingsService} cache rather than a Gateway call per request.
+ * <p>
+ * Every request is suspended and answered from our own bounded request pool, so the
+ * container's threads are never held while we wait on the Gateway.
  *
  * @see com.appworks.service.example.services.SettingsService
  * @see com.appworks.service.example.handlers.CustomSettingsHandler
@@ -37,64 +57,108 @@ public class ServiceSettingsResource extends AbstractResource {
     private static final Logger LOG = LoggerFactory.getLogger(ServiceSettingsResource.class);
 
     /**
-     * Get the services configuration settings.
+     * The settings GET /api/configuration returns.
+     */
+    private static final List<String> CONFIG_KEYS = configKeys();
+
+    private static final long CONFIG_DEADLINE_MS =
+            Long.getLong(CONFIG_DEADLINE_MS_PROPERTY, DEFAULT_CONFIG_DEADLINE_MS);
+
+    private static final int CONFIG_MAX_AGE_SECONDS =
+            Integer.getInteger(CONFIG_MAX_AGE_SECONDS_PROPERTY, DEFAULT_CONFIG_MAX_AGE_SECONDS);
+
+    /**
+     * Our GET payloads already serialised, shared by all requests.
+     */
+    private static final EncodedResponseCache ENCODED_RESPONSES = new EncodedResponseCache();
+
+    private static final String ALL_CONFIG = "*";
+
+    private static final String WARNING_HEADER = "Warning";
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final int CONFIG_BATCH_MAX_SIZE =
+            Integer.getInteger(CONFIG_BATCH_MAX_SIZE_PROPERTY, DEFAULT_CONFIG_BATCH_MAX_SIZE);
+
+    /**
+     * Get the services configuration settings. Clients may send the ETag of the
+     * configuration they hold as {@code If-None-Match}, a 304 is returned if it is current.
      *
-     * @return response
+     * @param asyncResponse the suspended response
+     * @param request       the request, used to evaluate its preconditions
+     * @param headers       the request headers, used to negotiate the response encoding
      */
     // GET {base_url}/api/configuration
     @GET
-    public Response getServiceConfig() {
-        return getConfig();
+    public void getServiceConfig(@Suspended AsyncResponse asyncResponse,
+                                 @Context Request request,
+                                 @Context HttpHeaders headers) {
+        String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        respondAsync(asyncResponse, () -> getConfig(request, acceptEncoding, false));
     }
 
     /**
      * Get the services configuration settings validating the clients session with
      * the AppWorks Gateway via a header.
      *
-     * @param req       request
-     * @param otagToken the AppWorks Gateway session token
-     * @return response
+     * @param asyncResponse the suspended response
+     * @param req           request
+     * @param request       the request, used to evaluate its preconditions
+     * @param headers       the request headers, used to negotiate the response encoding
+     * @param otagToken     the AppWorks Gateway session token
      */
     // GET {base_url}/api/configuration/secure/{key}
     @GET
     @Path("secure")
-    public Response getServiceConfigSecurely(@Context HttpServletRequest req,
-                                             @HeaderParam("otagtoken") String otagToken) {
-
-        try {
-            // use the Gateways authentication service to ensure the client has a valid session
-            AuthClient authClient = getAuthClient();
-            authClient.getUserForToken(otagToken);
-        } catch (Exception e) {
-            LOG.error("Rebuffed unauthorised access from I.P. " + req.getRemoteAddr());
-            return Response.status(Response.Status.UNAUTHORIZED).build();
-        }
+    public void getServiceConfigSecurely(@Suspended AsyncResponse asyncResponse,
+                                         @Context HttpServletRequest req,
+                                         @Context Request request,
+                                         @Context HttpHeaders headers,
+                                         @HeaderParam("otagtoken") String otagToken) {
+        String remoteAddr = req.getRemoteAddr();
+        String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        respondAsync(asyncResponse, () -> getConfigSecurely(request, acceptEncoding, otagToken, remoteAddr));
+    }
 
-        return getConfig();
+    /**
+     * Stream changes to our configuration settings as Server-Sent Events, an alternative to
+     * polling {@link #getServiceConfig(AsyncResponse, Request, HttpHeaders)}. Each change is a
+     * {@code setting} event carrying the key and new value. A client that reconnects with the
+     * {@code Last-Event-ID} it last saw is sent the changes it missed, or a {@code reset} event
+     * if we no longer hold them.
+     *
+     * @param lastEventId the id of the last event the client saw
+     * @return the event stream
+     */
+    // GET {base_url}/api/configuration/stream
+    @GET
+    @Path("stream")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput streamConfigChanges(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId) {
+        return getSettingsChangeBroadcaster().subscribe(lastEventId)
+                .orElseThrow(() -> new WebApplicationException(serviceUnavailable(0L)));
     }
 
     /**
-     * Get a specific configuration setting by key.
+     * Get a specific configuration setting by key. Supports {@code If-None-Match} in the
+     * same way as {@link #getServiceConfig(AsyncResponse, Request, HttpHeaders)}.
      *
-     * @param key setting key
-     * @return response
+     * @param asyncResponse the suspended response
+     * @param request       the request, used to evaluate its preconditions
+     * @param headers       the request headers, used to negotiate the response encoding
+     * @param key           setting key
      */
     // GET {base_url}/api/configuration/{key}
     @GET
     @Path("{key}")
-    public Response getConfigByKey(@PathParam("key") String key) {
-        Setting setting;
-        try {
-            setting = getSettingsClient().getSetting(key);
-
-            if (setting == null)
-                return Response.status(Response.Status.NOT_FOUND).build();
-        } catch (Exception e) {
-            LOG.error("Failed to retrieve configuration setting for key " + key, e);
-            return Response.serverError().build();
-        }
-
-        return Response.ok(new MyImmutableDataObject(setting.getKey(), setting.getValue())).build();
+    public void getConfigByKey(@Suspended AsyncResponse asyncResponse,
+                               @Context Request request,
+                               @Context HttpHeaders headers,
+                               @PathParam("key") String key) {
+        String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        respondAsync(asyncResponse, () -> getSettingByKey(request, acceptEncoding, key));
     }
 
     /**
@@ -105,34 +169,111 @@ public class ServiceSettingsResource extends AbstractResource {
      * "value": "some value"
      * }
      *
-     * @param key          setting key
-     * @param updatedValue new value
-     * @return response
+     * @param asyncResponse the suspended response
+     * @param key           setting key
+     * @param updatedValue  new value
      */
     // PUT {base_url}/api/configuration/{key}
     @PUT
     @Path("{key}")
-    public Response updateConfigValue(@PathParam("key") String key,
-                                      MyImmutableDataObject updatedValue) {
+    public void updateConfigValue(@Suspended AsyncResponse asyncResponse,
+                                  @PathParam("key") String key,
+                                  MyImmutableDataObject updatedValue) {
+        respondAsync(asyncResponse, () -> updateConfig(key, updatedValue));
+    }
+
+    /**
+     * Update a number of configuration settings at once. We expect a JSON array of
+     * {@link MyImmutableDataObject}s, every entry is checked before any is applied and
+     * a single bad entry fails the whole request with a 400 listing the problems. Entries
+     * whose value is already current are skipped. The outcome for each key is returned.
+     *
+     * @param asyncResponse the suspended response
+     * @param updatedValues the new values
+     */
+    // PUT {base_url}/api/configuration
+    @PUT
+    public void updateConfigValues(@Suspended AsyncResponse asyncResponse,
+                                   List<MyImmutableDataObject> updatedValues) {
+        respondAsync(asyncResponse, () -> updateConfigs(updatedValues));
+    }
+
+    private Response getConfigSecurely(Request request, String acceptEncoding, String otagToken, String remoteAddr) {
+        try {
+            // use the Gateways authentication service to ensure the client has a valid session,
+            // recently seen tokens are answered without asking the Gateway again
+            if (!getAuthTokenService().getUserForToken(otagToken).isPresent()) {
+                LOG.error("Rebuffed unauthorised access from I.P. " + remoteAddr);
+                return Response.status(Response.Status.UNAUTHORIZED).build();
+            }
+        } catch (GatewayUnavailableException e) {
+            // we can't tell either way right now
+            LOG.warn("Unable to validate session from I.P. " + remoteAddr + " - " + e.getMessage());
+            return serviceUnavailable(e.getRetryAfterMillis());
+        } catch (Exception e) {
+            LOG.error("Rebuffed unauthorised access from I.P. " + remoteAddr);
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+
+        return getConfig(request, acceptEncoding, true);
+    }
+
+    private Response getSettingByKey(Request request, String acceptEncoding, String key) {
+        SettingValue setting;
+        try {
+            Optional<SettingValue> retrieved = getSettingsService().getSettingValue(key);
+
+            if (!retrieved.isPresent()) {
+                // we held no value to fall back to, and did not get to ask the Gateway
+                long retryAfter = getGatewayGuard().getRetryAfterMillis("getSetting");
+                if (retryAfter > 0)
+                    return serviceUnavailable(retryAfter);
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+
+            setting = retrieved.get();
+        } catch (Exception e) {
+            LOG.error("Failed to retrieve configuration setting for key " + key, e);
+            return Response.serverError().build();
+        }
+
+        EntityTag etag = ConfigEntityTags.of(setting);
+        boolean stale = setting.isStale();
+        Response.ResponseBuilder notModified = EncodedResponseCache.notModified(request, etag, acceptEncoding);
+        if (notModified != null)
+            return staleness(notModified.cacheControl(cacheControl(false)), stale).build();
+
+        SettingValue found = setting;
+        return staleness(ENCODED_RESPONSES.ok(key, etag,
+                () -> new MyImmutableDataObject(found.getKey(), found.toJsonValue()), acceptEncoding)
+                .cacheControl(cacheControl(false)), stale)
+                .build();
+    }
+
+    private Response updateConfig(String key, MyImmutableDataObject updatedValue) {
         // 400 BAD REQUEST for invalid input
         if (key == null || updatedValue == null || updatedValue.getKey() == null ||
-                !key.equals(updatedValue.getKey()) || updatedValue.getValue() == null) {
+                !key.equals(updatedValue.getKey()) || toSettingValue(updatedValue.getValue()) == null) {
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
 
         Setting setting;
         try {
-            SettingsClient settingsClient = getSettingsClient();
-            setting = settingsClient.getSetting(key);
+            Optional<Setting> updated = getSettingsService()
+                    .updateSetting(key, toSettingValue(updatedValue.getValue()));
 
-            if (setting == null) {
+            if (!updated.isPresent()) {
                 LOG.error("Failed to find config setting for " + key);
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
 
-            setting.setValue((String) updatedValue.getValue());
-            // save the setting back to the store
-            settingsClient.updateSetting(setting);
+            setting = updated.get();
+        } catch (GatewayUnavailableException e) {
+            LOG.warn("Not updating configuration setting for key " + key + " - " + e.getMessage());
+            return serviceUnavailable(e.getRetryAfterMillis());
+        } catch (IllegalArgumentException e) {
+            // the value does not suit the settings type
+            return badRequest(Collections.singletonList(e.getMessage()));
         } catch (Exception e) {
             String errMsg = "Failed to update configuration setting for key " + key +
                     " with new value " + updatedValue;
@@ -145,57 +286,148 @@ public class ServiceSettingsResource extends AbstractResource {
         }
 
         // return the value with the settings new value
-        return Response.ok(new MyImmutableDataObject(setting.getKey(), setting.getValue())).build();
+        return Response.ok(new MyImmutableDataObject(setting.getKey(), SettingValue.of(setting).toJsonValue())).build();
     }
 
-    private Response getConfig() {
-        try {
-            List<MyImmutableDataObject> returnList = getMyConfig();
+    private Response updateConfigs(List<MyImmutableDataObject> updatedValues) {
+        if (updatedValues == null || updatedValues.isEmpty())
+            return badRequest(Collections.singletonList("Expected a non empty list of settings"));
+        if (updatedValues.size() > CONFIG_BATCH_MAX_SIZE)
+            return badRequest(Collections.singletonList(
+                    "At most " + CONFIG_BATCH_MAX_SIZE + " settings may be updated at once"));
+
+        // check everything before we touch the Gateway
+        Map<String, String> values = new LinkedHashMap<>(updatedValues.size() * 2);
+        List<String> problems = new ArrayList<>();
+        for (int i = 0; i < updatedValues.size(); i++) {
+            MyImmutableDataObject updatedValue = updatedValues.get(i);
+            String value = updatedValue == null ? null : toSettingValue(updatedValue.getValue());
+            if (updatedValue == null || updatedValue.getKey() == null || updatedValue.getKey().isEmpty()) {
+                problems.add("Entry " + i + " has no key");
+            } else if (value == null) {
+                problems.add("Entry " + i + " (" + updatedValue.getKey() + ") has no value");
+            } else if (values.putIfAbsent(updatedValue.getKey(), value) != null) {
+                problems.add("Entry " + i + " (" + updatedValue.getKey() + ") repeats an earlier key");
+            } else {
+                String problem = checkType(updatedValue.getKey(), value);
+                if (problem != null)
+                    problems.add("Entry " + i + " (" + updatedValue.getKey() + ") " + problem);
+            }
+        }
+        if (!problems.isEmpty())
+            return badRequest(problems);
 
-            return Response.ok(returnList).build();
+        try {
+            return Response.ok(getSettingsService().updateSettings(values)).build();
         } catch (Exception e) {
-            LOG.error("Failed to retrieve the configuration for this service - " + e.getMessage(), e);
+            LOG.error("Failed to update configuration settings " + values.keySet(), e);
             return Response.serverError().build();
         }
     }
 
-    private List<MyImmutableDataObject> getMyConfig() {
-        SettingsClient settingsClient = getSettingsClient();
-        List<MyImmutableDataObject> returnList = new ArrayList<>(3);
+    /**
+     * @return why the value does not suit the type of the setting, or null if it does or we
+     * don't know the setting
+     */
+    private String checkType(String key, String value) {
+        Optional<SettingValue> current = getSettingsService().getSettingValue(key);
+        if (!current.isPresent())
+            return null;
+        try {
+            SettingValue.validate(current.get().getType(), value);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * The Gateway holds every value as a string, we accept numbers, booleans and JSON
+     * objects or arrays too.
+     *
+     * @return the value as a string, or null if it is missing
+     */
+    private static String toSettingValue(Object value) {
+        if (value == null)
+            return null;
+        if (value instanceof String)
+            return (String) value;
+        if (value instanceof Map || value instanceof List) {
+            try {
+                return JSON.writeValueAsString(value);
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+        return String.valueOf(value);
+    }
 
-        addConfig(settingsClient, OUR_STRING_SETTING_KEY, returnList, Setting::getValue);
+    private static Response badRequest(List<String> problems) {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Collections.singletonMap("errors", problems))
+                .build();
+    }
+
+    private Response getConfig(Request request, String acceptEncoding, boolean secure) {
+        try {
+            // the keys are fetched concurrently, any that miss the deadline are left out
+            Map<String, SettingValue> settings = getSettingsService().getSettingValues(CONFIG_KEYS, CONFIG_DEADLINE_MS);
 
-        addConfig(settingsClient, OUR_NUMBER_SETTING_KEY, returnList,
-                setting -> Integer.valueOf(setting.getValue()));
+            // answer an up to date client before we build or serialise anything
+            EntityTag etag = ConfigEntityTags.of(settings.values());
+            boolean stale = settings.values().stream().anyMatch(SettingValue::isStale);
+            Response.ResponseBuilder notModified = EncodedResponseCache.notModified(request, etag, acceptEncoding);
+            if (notModified != null)
+                return staleness(notModified.cacheControl(cacheControl(secure)), stale).build();
+
+            // the payload is only built and serialised when the settings have changed
+            return staleness(ENCODED_RESPONSES.ok(ALL_CONFIG, etag, () -> getMyConfig(settings), acceptEncoding)
+                    .cacheControl(cacheControl(secure)), stale)
+                    .build();
+        } catch (Exception e) {
+            LOG.error("Failed to retrieve the configuration for this service - " + e.getMessage(), e);
+            return Response.serverError().build();
+        }
+    }
 
-        addConfig(settingsClient, OUR_BOOL_SETTING_KEY, returnList,
-                setting -> Boolean.valueOf(setting.getValue()));
+    private List<MyImmutableDataObject> getMyConfig(Map<String, SettingValue> settings) {
+        List<MyImmutableDataObject> returnList = new ArrayList<>(settings.size());
 
-        addConfig(settingsClient, OUR_JSON_SETTING_KEY, returnList, Setting::getValue);
+        settings.forEach((settingKey, setting) ->
+                returnList.add(new MyImmutableDataObject(settingKey, setting.toJsonValue())));
 
         return returnList;
     }
 
-    private void addConfig(SettingsClient settingsClient,
-                           String settingKey,
-                           List<MyImmutableDataObject> returnList,
-                           Function<Setting, Object> supplier) {
-        Setting setting = null;
-        try {
-            setting = settingsClient.getSetting(settingKey);
-        } catch (APIException e) {
-            if (e.getStatus() == 404) {
-                LOG.debug("Setting was not found for key {}", settingKey);
-                return;
-            }
+    /**
+     * Flag a response the Gateway has not confirmed, served from the settings snapshot we
+     * restored at startup or from cached values we could not refresh in time.
+     */
+    private static Response.ResponseBuilder staleness(Response.ResponseBuilder response, boolean stale) {
+        if (stale)
+            response.header(WARNING_HEADER, STALE_WARNING);
+        return response;
+    }
 
-            // print the SDK clients debugging response info
-            LOG.warn("Error retrieving setting - {}", e.getCallInfo(), e);
-        }
+    /**
+     * Clients may keep the configuration for the max age, after that they must revalidate
+     * it with its ETag. Responses to authenticated requests must not be held by shared caches.
+     */
+    private CacheControl cacheControl(boolean secure) {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(CONFIG_MAX_AGE_SECONDS);
+        cacheControl.setMustRevalidate(true);
+        cacheControl.setPrivate(secure);
+        return cacheControl;
+    }
 
-        // add the setting if we managed to retrieve one
-        if (setting != null)
-            returnList.add(new MyImmutableDataObject(settingKey, supplier.apply(setting)));
+    private static List<String> configKeys() {
+        String keys = System.getProperty(CONFIG_KEYS_PROPERTY, DEFAULT_CONFIG_KEYS);
+        return Collections.unmodifiableList(Arrays.stream(keys.split(","))
+                .map(String::trim)
+                .filter(key -> !key.isEmpty())
+                .distinct()
+                .collect(Collectors.toList()));
     }
 
 }
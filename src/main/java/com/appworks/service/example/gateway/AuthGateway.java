@@ -0,0 +1,50 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.AuthClient;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+
+/**
+ * The Gateway auth call our components make, usually backed by the SDK {@link AuthClient}.
+ */
+@FunctionalInterface
+public interface AuthGateway {
+
+    /**
+     * @param otagToken the AppWorks Gateway session token
+     * @return the user as returned by the SDK, or null if the token is not valid
+     * @throws APIException if the Gateway call fails
+     */
+    Object getUserForToken(String otagToken) throws APIException;
+
+    /**
+     * @param authClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static AuthGateway of(AuthClient authClient) {
+        return authClient::getUserForToken;
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static AuthGateway timed(AuthGateway gateway, ServiceMetrics metrics) {
+        return otagToken -> metrics.timeSdkCall("getUserForToken", () -> gateway.getUserForToken(otagToken));
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static AuthGateway guarded(AuthGateway gateway, GatewayGuard guard) {
+        return otagToken -> guard.call("auth", "getUserForToken", () -> gateway.getUserForToken(otagToken));
+    }
+
+}
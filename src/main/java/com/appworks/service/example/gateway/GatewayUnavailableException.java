@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+/**
+ * A Gateway call we refused to make, as the Gateway is failing or we already have as many
+ * calls to it in flight as we allow. Nothing was sent to the Gateway.
+ *
+ * @see com.appworks.service.example.services.GatewayGuard
+ */
+public class GatewayUnavailableException extends RuntimeException {
+
+    private final String operation;
+    private final long retryAfterMillis;
+
+    public GatewayUnavailableException(String operation, String reason, long retryAfterMillis) {
+        super(operation + " was not attempted - " + reason);
+        this.operation = operation;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return when the caller could usefully try again
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
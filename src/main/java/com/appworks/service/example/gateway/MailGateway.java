@@ -0,0 +1,47 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.MailClient;
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import com.opentext.otag.sdk.types.v3.MailResult;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+
+/**
+ * The Gateway mail call our components make, usually backed by the SDK {@link MailClient}.
+ */
+@FunctionalInterface
+public interface MailGateway {
+
+    MailResult sendMail(MailRequest mailRequest) throws APIException;
+
+    /**
+     * @param mailClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static MailGateway of(MailClient mailClient) {
+        return mailClient::sendMail;
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static MailGateway timed(MailGateway gateway, ServiceMetrics metrics) {
+        return mailRequest -> metrics.timeSdkCall("sendMail", () -> gateway.sendMail(mailRequest));
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static MailGateway guarded(MailGateway gateway, GatewayGuard guard) {
+        return mailRequest -> guard.call("mail", "sendMail", () -> gateway.sendMail(mailRequest));
+    }
+
+}
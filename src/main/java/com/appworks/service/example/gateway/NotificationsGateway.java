@@ -0,0 +1,49 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.NotificationsClient;
+import com.opentext.otag.sdk.types.v3.api.SDKResponse;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.sdk.types.v3.notification.ClientPushNotificationRequest;
+
+/**
+ * The Gateway push notification call our components make, usually backed by the SDK
+ * {@link NotificationsClient}.
+ */
+@FunctionalInterface
+public interface NotificationsGateway {
+
+    SDKResponse sendPushNotification(ClientPushNotificationRequest request) throws APIException;
+
+    /**
+     * @param notificationsClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static NotificationsGateway of(NotificationsClient notificationsClient) {
+        return notificationsClient::sendPushNotification;
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static NotificationsGateway timed(NotificationsGateway gateway, ServiceMetrics metrics) {
+        return request -> metrics.timeSdkCall("sendPushNotification", () -> gateway.sendPushNotification(request));
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static NotificationsGateway guarded(NotificationsGateway gateway, GatewayGuard guard) {
+        return request -> guard.call("notifications", "sendPushNotification",
+                () -> gateway.sendPushNotification(request));
+    }
+
+}
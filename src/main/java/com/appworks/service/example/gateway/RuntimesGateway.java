@@ -0,0 +1,46 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.RuntimesClient;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.sdk.types.v3.apps.Runtimes;
+
+/**
+ * The Gateway runtimes call our components make, usually backed by the SDK {@link RuntimesClient}.
+ */
+@FunctionalInterface
+public interface RuntimesGateway {
+
+    Runtimes getAllRuntimes() throws APIException;
+
+    /**
+     * @param runtimesClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static RuntimesGateway of(RuntimesClient runtimesClient) {
+        return runtimesClient::getAllRuntimes;
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static RuntimesGateway timed(RuntimesGateway gateway, ServiceMetrics metrics) {
+        return () -> metrics.timeSdkCall("getAllRuntimes", gateway::getAllRuntimes);
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static RuntimesGateway guarded(RuntimesGateway gateway, GatewayGuard guard) {
+        return () -> guard.call("runtimes", "getAllRuntimes", gateway::getAllRuntimes);
+    }
+
+}
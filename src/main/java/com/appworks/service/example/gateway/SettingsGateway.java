@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.SettingsClient;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+
+/**
+ * The Gateway settings calls our components make. Usually backed by the SDK
+ * {@link SettingsClient}, see {@link #of(SettingsClient)}, the seam lets us substitute
+ * other implementations, e.g. in-memory stand-ins for benchmarking.
+ */
+public interface SettingsGateway {
+
+    Setting getSetting(String key) throws APIException;
+
+    void createSetting(Setting setting) throws APIException;
+
+    void updateSetting(Setting setting) throws APIException;
+
+    /**
+     * @param settingsClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static SettingsGateway of(SettingsClient settingsClient) {
+        return new SettingsGateway() {
+            @Override
+            public Setting getSetting(String key) throws APIException {
+                return settingsClient.getSetting(key);
+            }
+
+            @Override
+            public void createSetting(Setting setting) throws APIException {
+                settingsClient.createSetting(setting);
+            }
+
+            @Override
+            public void updateSetting(Setting setting) throws APIException {
+                settingsClient.updateSetting(setting);
+            }
+        };
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static SettingsGateway timed(SettingsGateway gateway, ServiceMetrics metrics) {
+        return new SettingsGateway() {
+            @Override
+            public Setting getSetting(String key) throws APIException {
+                return metrics.timeSdkCall("getSetting", () -> gateway.getSetting(key));
+            }
+
+            @Override
+            public void createSetting(Setting setting) throws APIException {
+                metrics.timeSdkCall("createSetting", () -> {
+                    gateway.createSetting(setting);
+                    return null;
+                });
+            }
+
+            @Override
+            public void updateSetting(Setting setting) throws APIException {
+                metrics.timeSdkCall("updateSetting", () -> {
+                    gateway.updateSetting(setting);
+                    return null;
+                });
+            }
+        };
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static SettingsGateway guarded(SettingsGateway gateway, GatewayGuard guard) {
+        return new SettingsGateway() {
+            @Override
+            public Setting getSetting(String key) throws APIException {
+                return guard.call("settings", "getSetting", () -> gateway.getSetting(key));
+            }
+
+            @Override
+            public void createSetting(Setting setting) throws APIException {
+                guard.call("settings", "createSetting", () -> {
+                    gateway.createSetting(setting);
+                    return null;
+                });
+            }
+
+            @Override
+            public void updateSetting(Setting setting) throws APIException {
+                guard.call("settings", "updateSetting", () -> {
+                    gateway.updateSetting(setting);
+                    return null;
+                });
+            }
+        };
+    }
+
+}
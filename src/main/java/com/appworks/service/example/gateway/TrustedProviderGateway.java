@@ -0,0 +1,79 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.gateway;
+
+import com.appworks.service.example.services.GatewayGuard;
+import com.appworks.service.example.services.ServiceMetrics;
+import com.opentext.otag.sdk.client.v3.TrustedProviderClient;
+import com.opentext.otag.sdk.types.v3.TrustedProvider;
+import com.opentext.otag.sdk.types.v3.TrustedProviders;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+
+/**
+ * The Gateway trusted provider calls our components make, usually backed by the SDK
+ * {@link TrustedProviderClient}.
+ */
+public interface TrustedProviderGateway {
+
+    TrustedProviders getAllProviders() throws APIException;
+
+    TrustedProvider getOrCreate(String name) throws APIException;
+
+    /**
+     * @param trustedProviderClient SDK client
+     * @return a gateway that delegates to the SDK client
+     */
+    static TrustedProviderGateway of(TrustedProviderClient trustedProviderClient) {
+        return new TrustedProviderGateway() {
+            @Override
+            public TrustedProviders getAllProviders() throws APIException {
+                return trustedProviderClient.getAllProviders();
+            }
+
+            @Override
+            public TrustedProvider getOrCreate(String name) throws APIException {
+                return trustedProviderClient.getOrCreate(name);
+            }
+        };
+    }
+
+    /**
+     * @param gateway  the gateway to time
+     * @param metrics  where to record the calls
+     * @return a gateway that records the latency and failures of each call
+     */
+    static TrustedProviderGateway timed(TrustedProviderGateway gateway, ServiceMetrics metrics) {
+        return new TrustedProviderGateway() {
+            @Override
+            public TrustedProviders getAllProviders() throws APIException {
+                return metrics.timeSdkCall("getAllProviders", gateway::getAllProviders);
+            }
+
+            @Override
+            public TrustedProvider getOrCreate(String name) throws APIException {
+                return metrics.timeSdkCall("getOrCreate", () -> gateway.getOrCreate(name));
+            }
+        };
+    }
+
+    /**
+     * @param gateway the gateway to guard
+     * @param guard   the bulkheads and breakers to call it through
+     * @return a gateway that refuses calls the Gateway is unlikely to answer in time
+     */
+    static TrustedProviderGateway guarded(TrustedProviderGateway gateway, GatewayGuard guard) {
+        return new TrustedProviderGateway() {
+            @Override
+            public TrustedProviders getAllProviders() throws APIException {
+                return guard.call("trustedProviders", "getAllProviders", gateway::getAllProviders);
+            }
+
+            @Override
+            public TrustedProvider getOrCreate(String name) throws APIException {
+                return guard.call("trustedProviders", "getOrCreate", () -> gateway.getOrCreate(name));
+            }
+        };
+    }
+
+}
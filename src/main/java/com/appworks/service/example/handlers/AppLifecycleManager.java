@@ -5,7 +5,6 @@ package com.appworks.service.example.handlers;
 
 import com.appworks.service.example.services.MailerService;
 import com.opentext.otag.sdk.handlers.AbstractLifecycleChangeHandler;
-import com.opentext.otag.sdk.types.v3.MailRequest;
 import com.opentext.otag.sdk.types.v3.message.LifecycleChangeMessage;
 import com.opentext.otag.service.context.components.AWComponentContext;
 import org.slf4j.Logger;
@@ -47,12 +46,18 @@ public class AppLifecycleManager extends AbstractLifecycleChangeHandler {
      * Use our {@link MailerService} to send an email regarding the upgrade notice.
      */
     private void sendUpgradeNoticeEmail() {
-        MailRequest mailRequest = new MailRequest("admin@myservice.com", getToList(),
-                "MyService Upgrade Alert", "MyService has been upgraded by the otag admin");
-
         MailerService mailerService = AWComponentContext.getComponent(MailerService.class);
         if (mailerService == null) throw new RuntimeException("Could not get MailerService");
-        mailerService.sendEmail(mailRequest);
+        // sent in chunks in the background, chunks that keep failing end up in the outbox
+        mailerService.sendBulkEmail("admin@myservice.com", getToList(),
+                "MyService Upgrade Alert", "MyService has been upgraded by the otag admin")
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        LOG.error("Failed to send the upgrade notice", error);
+                    } else if (!result.isComplete()) {
+                        LOG.warn("Upgrade notice was not sent to everyone - {}", result);
+                    }
+                });
     }
 
     private List<String> getToList() {
@@ -5,9 +5,11 @@ package com.appworks.service.example.handlers;
 
 import com.appworks.service.example.ServiceConstants;
 import com.appworks.service.example.services.PushNotificationService;
+import com.appworks.service.example.services.SettingChangeDispatcher;
+import com.appworks.service.example.services.SettingsChangeBroadcaster;
 import com.appworks.service.example.services.SettingsService;
+import com.appworks.service.example.util.KeyedDebouncer;
 import com.opentext.otag.sdk.handlers.AbstractMultiSettingChangeHandler;
-import com.opentext.otag.sdk.types.v3.api.error.APIException;
 import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
 import com.opentext.otag.sdk.types.v3.settings.Setting;
 import com.opentext.otag.service.context.components.AWComponentContext;
@@ -15,9 +17,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * An example of a multi setting change listener. This AppWorks Service has 4 system
@@ -26,6 +31,13 @@ import java.util.Set;
  * <p>
  * When we do detect a change then we send a dummy push notification and check the updated
  * setting value. We do this using two services we created that make use of the SDK API clients.
+ * <p>
+ * An admin often edits several settings at once, so changes are collected until no new change
+ * has arrived for a quiet window. Only the latest value per key is kept and all the keys changed
+ * in that window are reported in a single notification.
+ * <p>
+ * Our handling runs on the {@link SettingChangeDispatcher}, never on the thread the SDK delivers
+ * changes on. Work for one key runs in order, work for different keys in parallel.
  */
 // our constructor is never used directly as AppWorks will create an instance of this for us
 @SuppressWarnings("unused")
@@ -33,6 +45,10 @@ public class CustomSettingsHandler extends AbstractMultiSettingChangeHandler {
 
     public static final Logger LOG = LoggerFactory.getLogger(CustomSettingsHandler.class);
 
+    // created on the first change, its timer thread is stopped along with the dispatcher that owns it
+    private KeyedDebouncer<String, SettingsChangeMessage> changeDebouncer;
+    private SettingChangeDispatcher changeDebouncerOwner;
+
     public CustomSettingsHandler() {
         // Add the handlers for our keys on construction, taken care of by base class
         // we pass it the our own handling method defined below
@@ -58,29 +74,107 @@ public class CustomSettingsHandler extends AbstractMultiSettingChangeHandler {
     }
 
     /**
-     * Compare the new value we received in the handler with the value the Setting client can
-     * now retrieve.
+     * Hand a change to our dispatcher and return, the SDK can deliver the next one.
      *
      * @param message the change message passed to us from the Gateway
      */
     private void onSettingChanged(SettingsChangeMessage message) {
         LOG.info("New " + message.getKey() + " value=" + message.getNewValue());
+        dispatch(message.getKey(), () -> handleSettingChanged(message));
+    }
+
+    /**
+     * Record a change, our cache is updated straight away while the rest of the handling
+     * waits for the change storm (if any) to settle.
+     *
+     * @param message the change message passed to us from the Gateway
+     */
+    private void handleSettingChanged(SettingsChangeMessage message) {
+        // keep the local settings cache in step with the Gateway
+        updateCachedSetting(message);
+        // tell the clients streaming our settings straight away
+        publishChange(message);
 
-        try {
-            // issue a test push notification to some hardcoded users
-            sendNotificationRegardingChange(message);
-            // check that the value we were given is still the correct value by asking the Gateway via our SettingService
-            verifySettingUpdate(message);
-        } catch (APIException e) {
-            LOG.warn("We failed to send notification regarding message update - {}", e.getCallInfo());
+        SettingChangeDispatcher changeDispatcher = AWComponentContext.getComponent(SettingChangeDispatcher.class);
+        if (changeDispatcher != null) {
+            getChangeDebouncer(changeDispatcher).submit(message.getKey(), message);
+        } else {
+            // we have not been bootstrapped yet, nothing would stop the debouncer's timer
+            onSettingsChanged(Collections.singletonMap(message.getKey(), message));
+        }
+    }
+
+    private synchronized KeyedDebouncer<String, SettingsChangeMessage> getChangeDebouncer(
+            SettingChangeDispatcher changeDispatcher) {
+        // a restarted service has a new dispatcher, the one before stopped our last debouncer
+        if (changeDebouncer == null || changeDebouncerOwner != changeDispatcher) {
+            changeDebouncer = new KeyedDebouncer<>("settings-change",
+                    Long.getLong(ServiceConstants.SETTING_CHANGE_QUIET_MS_PROPERTY,
+                            ServiceConstants.DEFAULT_SETTING_CHANGE_QUIET_MS),
+                    Long.getLong(ServiceConstants.SETTING_CHANGE_MAX_WAIT_MS_PROPERTY,
+                            ServiceConstants.DEFAULT_SETTING_CHANGE_MAX_WAIT_MS),
+                    this::onSettingsChanged);
+            changeDebouncerOwner = changeDispatcher;
+            changeDispatcher.stopOnShutdown(changeDebouncer::shutdown);
+        }
+        return changeDebouncer;
+    }
+
+    /**
+     * Compare the new values we received in the handler with the values the Setting service
+     * now serves.
+     *
+     * @param changes the latest change message for each key changed in the last quiet window
+     */
+    private void onSettingsChanged(Map<String, SettingsChangeMessage> changes) {
+        LOG.info("Handling changes to {} settings - {}", changes.size(), changes.keySet());
+
+        // issue a single test push notification to some hardcoded users for all of the changes,
+        // this is queued so we don't hold up the delivery of further change messages
+        sendNotificationRegardingChanges(changes);
+        // check the value our SettingService now serves matches the one we were given, each
+        // key in turn with any later change to it
+        changes.values().forEach(message -> dispatch(message.getKey(), () -> verifySettingUpdate(message)));
+    }
+
+    private void dispatch(String key, Runnable work) {
+        SettingChangeDispatcher changeDispatcher = AWComponentContext.getComponent(SettingChangeDispatcher.class);
+        if (changeDispatcher != null) {
+            changeDispatcher.dispatch(key, work);
+        } else {
+            // we have not been bootstrapped yet
+            work.run();
+        }
+    }
+
+    private void updateCachedSetting(SettingsChangeMessage message) {
+        SettingsService settingsService = AWComponentContext.getComponent(SettingsService.class);
+        if (settingsService != null) {
+            settingsService.onSettingChanged(message);
+        } else {
+            LOG.warn("Unable to update cached setting, we failed to resolve the SettingService.");
+        }
+    }
+
+    private void publishChange(SettingsChangeMessage message) {
+        SettingsChangeBroadcaster changeBroadcaster = AWComponentContext.getComponent(SettingsChangeBroadcaster.class);
+        if (changeBroadcaster != null) {
+            changeBroadcaster.publish(message);
+        } else {
+            LOG.warn("Unable to stream setting change, we failed to resolve the SettingsChangeBroadcaster.");
         }
     }
 
-    private void sendNotificationRegardingChange(SettingsChangeMessage message) throws APIException {
+    private void sendNotificationRegardingChanges(Map<String, SettingsChangeMessage> changes) {
         PushNotificationService pushNotificationService = AWComponentContext.getComponent(PushNotificationService.class);
         if (pushNotificationService != null) {
-            String toSend = "MyService Setting " + message.getKey() + " was updated to " + message.getNewValue();
-            pushNotificationService.sendTestMessage(toSend);
+            String toSend = changes.values().stream()
+                    .map(message -> message.getKey() + " was updated to " + message.getNewValue())
+                    .collect(Collectors.joining(", ", "MyService Setting ", ""));
+            pushNotificationService.sendTestMessageAsync(toSend).thenAccept(sent -> {
+                if (!sent)
+                    LOG.warn("We failed to send notification regarding update to {}", changes.keySet());
+            });
         } else {
             LOG.warn("Unable to send push notification, we failed to resolve PushNotificationService");
         }
@@ -92,7 +186,7 @@ public class CustomSettingsHandler extends AbstractMultiSettingChangeHandler {
         if (settingsService != null) {
             Optional<Setting> settingOptional = settingsService.getSetting(message.getKey());
             settingOptional.ifPresent(setting ->
-                    LOG.info("Actual value was " + setting.getValue()));
+                    LOG.info("Actual " + message.getKey() + " value was " + setting.getValue()));
         } else {
             LOG.warn("Unable to verify setting change, we failed to resolve the SettingService.");
         }
@@ -0,0 +1,288 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.AuthGateway;
+import com.opentext.otag.sdk.client.v3.AuthClient;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.service.context.components.AWComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AppWorks component that validates Gateway session tokens via the SDK auth client,
+ * remembering the outcome for a short while so we don't ask the Gateway about the
+ * same token on every request.
+ * <p>
+ * Valid tokens are remembered for a TTL, rejected tokens for a (shorter) negative TTL.
+ * Concurrent lookups of a token we know nothing about share a single auth call. The
+ * cache is bounded, expired entries are swept first and then those closest to expiring.
+ */
+public class AuthTokenService implements AWComponent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthTokenService.class);
+
+    private final AuthGateway authGateway;
+
+    private final Map<String, CachedToken> cache = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder purges = new LongAdder();
+
+    public AuthTokenService(AuthClient authClient) {
+        this(AuthGateway.of(authClient));
+    }
+
+    public AuthTokenService(AuthGateway authGateway) {
+        this(authGateway,
+                Integer.getInteger(ServiceConstants.AUTH_TOKEN_CACHE_SIZE_PROPERTY,
+                        ServiceConstants.DEFAULT_AUTH_TOKEN_CACHE_SIZE),
+                Long.getLong(ServiceConstants.AUTH_TOKEN_CACHE_TTL_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_AUTH_TOKEN_CACHE_TTL_MS),
+                Long.getLong(ServiceConstants.AUTH_TOKEN_CACHE_NEGATIVE_TTL_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_AUTH_TOKEN_CACHE_NEGATIVE_TTL_MS));
+    }
+
+    public AuthTokenService(AuthGateway authGateway, int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this.authGateway = authGateway;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Resolve the user a Gateway session token belongs to.
+     *
+     * @param otagToken the AppWorks Gateway session token
+     * @return the user as returned by the SDK auth client, or empty if the token was rejected
+     * @throws APIException if the Gateway could not tell us either way
+     */
+    public Optional<Object> getUserForToken(String otagToken) throws APIException {
+        if (otagToken == null || otagToken.isEmpty())
+            return Optional.empty();
+
+        CachedToken entry = cache.get(otagToken);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            if (cache.remove(otagToken, entry))
+                expirations.increment();
+            entry = null;
+        }
+
+        if (entry == null) {
+            CachedToken created = new CachedToken();
+            entry = cache.putIfAbsent(otagToken, created);
+            if (entry == null) {
+                misses.increment();
+                evictIfFull();
+                return Optional.ofNullable(load(otagToken, created));
+            }
+        }
+
+        if (!entry.user.isDone())
+            coalesced.increment();
+
+        Object user;
+        try {
+            user = entry.user.join();
+        } catch (CompletionException e) {
+            // the call we were waiting on failed, share its failure
+            if (e.getCause() instanceof APIException)
+                throw (APIException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+
+        if (user != null) {
+            hits.increment();
+        } else {
+            negativeHits.increment();
+        }
+        return Optional.ofNullable(user);
+    }
+
+    /**
+     * Forget what we know about a token before its TTL ends, for example once its session
+     * is logged out or revoked. The next lookup will ask the Gateway.
+     *
+     * @param otagToken the AppWorks Gateway session token
+     */
+    public void purge(String otagToken) {
+        if (otagToken != null && cache.remove(otagToken) != null)
+            purges.increment();
+    }
+
+    /**
+     * @return a snapshot of the token cache counters
+     */
+    public TokenCacheStats getCacheStats() {
+        return new TokenCacheStats(cache.size(), hits.sum(), negativeHits.sum(), misses.sum(),
+                coalesced.sum(), expirations.sum(), sizeEvictions.sum(), purges.sum());
+    }
+
+    private Object load(String otagToken, CachedToken entry) throws APIException {
+        Object user;
+        try {
+            user = authGateway.getUserForToken(otagToken);
+        } catch (APIException e) {
+            if (!isRejection(e.getStatus())) {
+                // we learnt nothing about the token, don't remember the failure
+                cache.remove(otagToken, entry);
+                entry.user.completeExceptionally(e);
+                throw e;
+            }
+            LOG.debug("Gateway rejected token - {}", e.getCallInfo());
+            user = null;
+        } catch (RuntimeException e) {
+            cache.remove(otagToken, entry);
+            entry.user.completeExceptionally(e);
+            throw e;
+        }
+
+        entry.expiresAt = System.currentTimeMillis() + (user != null ? ttlMillis : negativeTtlMillis);
+        entry.user.complete(user);
+        return user;
+    }
+
+    private static boolean isRejection(int status) {
+        return status == 401 || status == 403 || status == 404;
+    }
+
+    private void evictIfFull() {
+        if (cache.size() <= maxSize)
+            return;
+
+        long now = System.currentTimeMillis();
+        cache.forEach((token, entry) -> {
+            if (entry.isExpired(now) && cache.remove(token, entry))
+                expirations.increment();
+        });
+
+        // still full, make room for a batch of new tokens rather than evicting one per insert
+        int target = maxSize - Math.max(1, maxSize / 10);
+        if (cache.size() <= target)
+            return;
+
+        // loading entries are left alone, the rest go in the order they would have expired
+        List<Map.Entry<String, CachedToken>> loaded = new ArrayList<>(cache.size());
+        cache.forEach((token, entry) -> {
+            if (entry.user.isDone())
+                loaded.add(new AbstractMap.SimpleImmutableEntry<>(token, entry));
+        });
+        loaded.sort(Comparator.comparingLong(next -> next.getValue().expiresAt));
+
+        Iterator<Map.Entry<String, CachedToken>> it = loaded.iterator();
+        while (cache.size() > target && it.hasNext()) {
+            Map.Entry<String, CachedToken> next = it.next();
+            if (cache.remove(next.getKey(), next.getValue()))
+                sizeEvictions.increment();
+        }
+    }
+
+    private static final class CachedToken {
+
+        // completes with the user, or null if the token was rejected
+        private final CompletableFuture<Object> user = new CompletableFuture<>();
+        // the entry never expires while it is loading
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+    }
+
+    /**
+     * Point in time view of the token cache counters.
+     */
+    public static final class TokenCacheStats {
+
+        private final int size;
+        private final long hits;
+        private final long negativeHits;
+        private final long misses;
+        private final long coalesced;
+        private final long expirations;
+        private final long sizeEvictions;
+        private final long purges;
+
+        public TokenCacheStats(int size, long hits, long negativeHits, long misses, long coalesced,
+                               long expirations, long sizeEvictions, long purges) {
+            this.size = size;
+            this.hits = hits;
+            this.negativeHits = negativeHits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.expirations = expirations;
+            this.sizeEvictions = sizeEvictions;
+            this.purges = purges;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getNegativeHits() {
+            return negativeHits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getSizeEvictions() {
+            return sizeEvictions;
+        }
+
+        /**
+         * @return tokens dropped on request before their TTL ended
+         */
+        public long getPurges() {
+            return purges;
+        }
+
+        @Override
+        public String toString() {
+            return "TokenCacheStats{size=" + size + ", hits=" + hits + ", negativeHits=" + negativeHits +
+                    ", misses=" + misses + ", coalesced=" + coalesced + ", expirations=" + expirations +
+                    ", sizeEvictions=" + sizeEvictions + ", purges=" + purges + "}";
+        }
+
+    }
+
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.appworks.service.example.util.RateLimiter;
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Sends one email to a large distribution list. The recipients are split into chunks, each
+ * chunk is a separate Gateway mail request, and the chunks are sent concurrently by a small
+ * pool while a {@link RateLimiter} keeps us from flooding the Gateways SMTP relay.
+ * <p>
+ * A chunk that fails is retried on its own with exponential backoff, the chunks that went
+ * out are not sent again. A chunk that still fails after the maximum number of attempts is
+ * handed to the fallback, the {@link MailOutbox}, which keeps retrying it across restarts.
+ */
+public class BulkMailSender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkMailSender.class);
+
+    private final Predicate<MailRequest> sender;
+    private final Fallback fallback;
+    private final int chunkSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService senders;
+
+    // chunks not yet finished with, so a shutdown can hand them to the fallback
+    private final Set<Chunk> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param sender          sends a single mail request, true if it succeeded
+     * @param fallback        takes the chunks we give up on
+     * @param chunkSize       recipients per mail request
+     * @param parallelism     mail requests in flight at once
+     * @param chunksPerSecond mail requests started per second, across all bulk sends
+     * @param maxAttempts     attempts at each chunk before it goes to the fallback
+     * @param backoffMillis   wait before the first retry of a chunk, doubled on each retry
+     */
+    public BulkMailSender(Predicate<MailRequest> sender, Fallback fallback, int chunkSize, int parallelism,
+                          double chunksPerSecond, int maxAttempts, long backoffMillis) {
+        this.sender = sender;
+        this.fallback = fallback;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.rateLimiter = new RateLimiter(chunksPerSecond);
+        this.senders = Executors.newScheduledThreadPool(Math.max(1, parallelism),
+                new NamedThreadFactory("mail-bulk"));
+    }
+
+    /**
+     * Start sending an email to every recipient, returns without waiting for any of it.
+     *
+     * @param from    sender address
+     * @param to      recipient addresses, duplicates are sent to once
+     * @param subject subject line
+     * @param body    message body
+     * @return completes with the outcome once every chunk is sent or given up on
+     */
+    public CompletableFuture<BulkMailResult> send(String from, List<String> to, String subject, String body) {
+        long start = System.nanoTime();
+        List<String> recipients = new ArrayList<>(new LinkedHashSet<>(to));
+
+        List<Chunk> chunks = new ArrayList<>((recipients.size() + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < recipients.size(); i += chunkSize) {
+            List<String> chunkRecipients = new ArrayList<>(
+                    recipients.subList(i, Math.min(i + chunkSize, recipients.size())));
+            chunks.add(new Chunk(from, chunkRecipients, subject, body));
+        }
+
+        CompletableFuture<?>[] outcomes = new CompletableFuture<?>[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            outcomes[i] = chunk.outcome;
+            pending.add(chunk);
+            if (!schedule(chunk, 0L))
+                giveUpUnlessSending(chunk);
+        }
+
+        return CompletableFuture.allOf(outcomes).thenApply(done -> {
+            BulkMailResult result = BulkMailResult.of(subject, recipients.size(), chunks,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            LOG.info("Bulk email \"{}\" finished - {}", subject, result);
+            return result;
+        });
+    }
+
+    /**
+     * Stop sending, the chunks not yet sent are handed to the fallback. A chunk that is being
+     * sent is left to its attempt, which hands it over itself if the send fails.
+     */
+    public void shutdown() {
+        senders.shutdownNow();
+        for (Chunk chunk : pending)
+            giveUpUnlessSending(chunk);
+    }
+
+    /**
+     * @return false if we are shutting down and the attempt was not scheduled
+     */
+    private boolean schedule(Chunk chunk, long delayMillis) {
+        // the rate limit is applied as the attempt is due, so a backoff does not hold a permit
+        Runnable attempt = () -> {
+            long waitNanos = rateLimiter.reserve();
+            if (waitNanos <= 0) {
+                attempt(chunk);
+            } else if (!reschedule(() -> attempt(chunk), waitNanos)) {
+                giveUpUnlessSending(chunk);
+            }
+        };
+        return reschedule(attempt, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    private boolean reschedule(Runnable task, long delayNanos) {
+        try {
+            senders.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void attempt(Chunk chunk) {
+        // a shutdown may already have handed the chunk to the fallback
+        if (!chunk.claim())
+            return;
+
+        try {
+            if (chunk.finished.get())
+                return;
+
+            chunk.attempts++;
+            boolean success;
+            try {
+                success = sender.test(new MailRequest(chunk.from, chunk.recipients, chunk.subject, chunk.body));
+            } catch (RuntimeException e) {
+                LOG.error("Failed to send a bulk email chunk of {} recipients", chunk.recipients.size(), e);
+                success = false;
+            }
+
+            if (success) {
+                finish(chunk, ChunkOutcome.SENT);
+            } else if (chunk.attempts >= maxAttempts) {
+                giveUp(chunk);
+            } else {
+                long backoff = backoffMillis << Math.min(chunk.attempts - 1, 30);
+                LOG.info("Bulk email chunk of {} recipients failed (attempt {}), retrying in {}ms",
+                        chunk.recipients.size(), chunk.attempts, backoff);
+                // we are shutting down, we still hold the chunk so hand it over now
+                if (!schedule(chunk, backoff))
+                    giveUp(chunk);
+            }
+        } finally {
+            chunk.release();
+        }
+    }
+
+    /**
+     * Give up on a chunk unless an attempt is sending it, the attempt then decides its fate.
+     */
+    private void giveUpUnlessSending(Chunk chunk) {
+        // never released, the chunk is finished with once we have given up on it
+        if (chunk.claim())
+            giveUp(chunk);
+    }
+
+    private void giveUp(Chunk chunk) {
+        if (chunk.finished.get())
+            return;
+
+        boolean queued;
+        try {
+            queued = fallback.queue(chunk.from, chunk.recipients, chunk.subject, chunk.body);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to hand a bulk email chunk to the fallback", e);
+            queued = false;
+        }
+        finish(chunk, queued ? ChunkOutcome.QUEUED : ChunkOutcome.FAILED);
+    }
+
+    private void finish(Chunk chunk, ChunkOutcome outcome) {
+        if (!chunk.finished.compareAndSet(false, true))
+            return;
+        pending.remove(chunk);
+        chunk.outcome.complete(outcome);
+    }
+
+    /**
+     * Where we send the chunks we give up on, see {@link MailerService#queueEmail}.
+     */
+    @FunctionalInterface
+    public interface Fallback {
+
+        boolean queue(String from, List<String> to, String subject, String body);
+
+    }
+
+    enum ChunkOutcome {
+        SENT, QUEUED, FAILED
+    }
+
+    private static final class Chunk {
+
+        private final String from;
+        private final List<String> recipients;
+        private final String subject;
+        private final String body;
+        private final CompletableFuture<ChunkOutcome> outcome = new CompletableFuture<>();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        // held while an attempt sends the chunk, or by whoever gives up on it
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        // only touched by whoever holds the claim
+        private volatile int attempts;
+
+        private Chunk(String from, List<String> recipients, String subject, String body) {
+            this.from = from;
+            this.recipients = recipients;
+            this.subject = subject;
+            this.body = body;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private void release() {
+            claimed.set(false);
+        }
+
+    }
+
+    /**
+     * The outcome of a bulk send.
+     */
+    public static final class BulkMailResult {
+
+        private final int recipients;
+        private final int chunks;
+        private final int sentChunks;
+        private final int queuedChunks;
+        private final int failedChunks;
+        private final int attempts;
+        private final List<String> undelivered;
+        private final long elapsedMillis;
+
+        public BulkMailResult(int recipients, int chunks, int sentChunks, int queuedChunks, int failedChunks,
+                              int attempts, List<String> undelivered, long elapsedMillis) {
+            this.recipients = recipients;
+            this.chunks = chunks;
+            this.sentChunks = sentChunks;
+            this.queuedChunks = queuedChunks;
+            this.failedChunks = failedChunks;
+            this.attempts = attempts;
+            this.undelivered = Collections.unmodifiableList(undelivered);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        private static BulkMailResult of(String subject, int recipients, List<Chunk> chunks, long elapsedMillis) {
+            int sent = 0;
+            int queued = 0;
+            int failed = 0;
+            int attempts = 0;
+            List<String> undelivered = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                attempts += chunk.attempts;
+                switch (chunk.outcome.join()) {
+                    case SENT:
+                        sent++;
+                        break;
+                    case QUEUED:
+                        queued++;
+                        break;
+                    default:
+                        failed++;
+                        undelivered.addAll(chunk.recipients);
+                        LOG.error("Gave up on bulk email \"{}\" to {} recipients", subject, chunk.recipients.size());
+                }
+            }
+            return new BulkMailResult(recipients, chunks.size(), sent, queued, failed, attempts, undelivered,
+                    elapsedMillis);
+        }
+
+        /**
+         * @return distinct recipients
+         */
+        public int getRecipients() {
+            return recipients;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getSentChunks() {
+            return sentChunks;
+        }
+
+        /**
+         * @return chunks we gave up on that are now in the outbox, still to be sent
+         */
+        public int getQueuedChunks() {
+            return queuedChunks;
+        }
+
+        /**
+         * @return chunks that were not sent and could not be queued
+         */
+        public int getFailedChunks() {
+            return failedChunks;
+        }
+
+        /**
+         * @return mail requests made, including retries
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the recipients of the failed chunks
+         */
+        public List<String> getUndelivered() {
+            return undelivered;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public boolean isComplete() {
+            return sentChunks == chunks;
+        }
+
+        @Override
+        public String toString() {
+            return recipients + " recipients in " + chunks + " chunks, " + sentChunks + " sent, " +
+                    queuedChunks + " queued, " + failedChunks + " failed, " + attempts + " attempts in " +
+                    elapsedMillis + "ms";
+        }
+
+    }
+
+}
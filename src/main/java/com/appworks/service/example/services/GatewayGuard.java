@@ -0,0 +1,229 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.GatewayUnavailableException;
+import com.appworks.service.example.util.Bulkhead;
+import com.appworks.service.example.util.CircuitBreaker;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.service.context.components.AWComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a degraded Gateway from stalling the whole service. Each Gateway dependency (settings,
+ * auth, ...) gets a {@link Bulkhead} so it can only tie up so many of our threads, and each SDK
+ * operation gets a {@link CircuitBreaker} so we stop waiting on calls that keep failing. Refused
+ * calls fail straight away with a {@link GatewayUnavailableException}.
+ * <p>
+ * Only server side failures count against a breaker, a 4xx is the Gateway answering us.
+ */
+public class GatewayGuard implements AWComponent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GatewayGuard.class);
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long slowCallMillis;
+    private final int maxConcurrent;
+    private final long maxWaitMillis;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    public GatewayGuard() {
+        this(Integer.getInteger(ServiceConstants.GATEWAY_BREAKER_FAILURE_THRESHOLD_PROPERTY,
+                ServiceConstants.DEFAULT_GATEWAY_BREAKER_FAILURE_THRESHOLD),
+                Long.getLong(ServiceConstants.GATEWAY_BREAKER_OPEN_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_GATEWAY_BREAKER_OPEN_MS),
+                Long.getLong(ServiceConstants.GATEWAY_BREAKER_SLOW_CALL_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_GATEWAY_BREAKER_SLOW_CALL_MS),
+                Integer.getInteger(ServiceConstants.GATEWAY_BULKHEAD_MAX_CONCURRENT_PROPERTY,
+                        ServiceConstants.DEFAULT_GATEWAY_BULKHEAD_MAX_CONCURRENT),
+                Long.getLong(ServiceConstants.GATEWAY_BULKHEAD_MAX_WAIT_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_GATEWAY_BULKHEAD_MAX_WAIT_MS));
+    }
+
+    public GatewayGuard(int failureThreshold, long openMillis, long slowCallMillis,
+                        int maxConcurrent, long maxWaitMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.slowCallMillis = slowCallMillis;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Make an SDK call if the dependency has capacity and the operation's breaker allows it.
+     *
+     * @param dependency the Gateway service called, e.g. settings
+     * @param operation  the SDK operation, e.g. getSetting
+     * @param call       the call
+     * @return the calls result
+     * @throws APIException                if the call fails
+     * @throws GatewayUnavailableException if we refused to make the call
+     */
+    public <T> T call(String dependency, String operation, ServiceMetrics.SdkCall<T> call) throws APIException {
+        Bulkhead bulkhead = bulkheads.computeIfAbsent(dependency,
+                name -> new Bulkhead(name, maxConcurrent, maxWaitMillis));
+        CircuitBreaker breaker = breakers.computeIfAbsent(operation,
+                name -> new CircuitBreaker(name, failureThreshold, openMillis, slowCallMillis));
+
+        if (!bulkhead.tryAcquire())
+            throw new GatewayUnavailableException(operation,
+                    "too many " + dependency + " calls in flight", maxWaitMillis);
+        try {
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            if (permit == null)
+                throw new GatewayUnavailableException(operation, "the Gateway is failing",
+                        breaker.getRetryAfterMillis());
+
+            long started = System.nanoTime();
+            try {
+                T result = call.call();
+                breaker.onSuccess(permit, System.nanoTime() - started);
+                return result;
+            } catch (APIException e) {
+                if (isGatewayFailure(e.getStatus())) {
+                    onFailure(breaker, permit);
+                } else {
+                    breaker.onSuccess(permit, System.nanoTime() - started);
+                }
+                throw e;
+            } catch (RuntimeException | Error e) {
+                onFailure(breaker, permit);
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * @param operation the SDK operation
+     * @return how long until the operation will be attempted again, 0 if it is being attempted
+     */
+    public long getRetryAfterMillis(String operation) {
+        CircuitBreaker breaker = breakers.get(operation);
+        return breaker == null ? 0L : breaker.getRetryAfterMillis();
+    }
+
+    public GuardStats getStats() {
+        List<BreakerStats> breakerStats = new ArrayList<>();
+        new TreeMap<>(breakers).forEach((name, breaker) -> breakerStats.add(new BreakerStats(name,
+                breaker.getState().name(), breaker.getTimesOpened(), breaker.getRejected())));
+
+        List<BulkheadStats> bulkheadStats = new ArrayList<>();
+        new TreeMap<>(bulkheads).forEach((name, bulkhead) -> bulkheadStats.add(new BulkheadStats(name,
+                bulkhead.getInFlight(), bulkhead.getMaxConcurrent(), bulkhead.getRejected())));
+
+        return new GuardStats(breakerStats, bulkheadStats);
+    }
+
+    private void onFailure(CircuitBreaker breaker, CircuitBreaker.Permit permit) {
+        CircuitBreaker.State before = breaker.getState();
+        breaker.onFailure(permit);
+        if (before != CircuitBreaker.State.OPEN && breaker.getState() == CircuitBreaker.State.OPEN)
+            LOG.warn("Gateway calls to {} keep failing, not attempting them for {}ms", breaker.getName(), openMillis);
+    }
+
+    /**
+     * The SDK reports no status when the Gateway could not be reached at all.
+     */
+    private static boolean isGatewayFailure(int status) {
+        return status == 0 || status >= 500;
+    }
+
+    public static class GuardStats {
+
+        private final List<BreakerStats> breakers;
+        private final List<BulkheadStats> bulkheads;
+
+        public GuardStats(List<BreakerStats> breakers, List<BulkheadStats> bulkheads) {
+            this.breakers = breakers;
+            this.bulkheads = bulkheads;
+        }
+
+        public List<BreakerStats> getBreakers() {
+            return breakers;
+        }
+
+        public List<BulkheadStats> getBulkheads() {
+            return bulkheads;
+        }
+
+    }
+
+    public static class BreakerStats {
+
+        private final String operation;
+        private final String state;
+        private final long timesOpened;
+        private final long rejected;
+
+        public BreakerStats(String operation, String state, long timesOpened, long rejected) {
+            this.operation = operation;
+            this.state = state;
+            this.timesOpened = timesOpened;
+            this.rejected = rejected;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public long getTimesOpened() {
+            return timesOpened;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+    }
+
+    public static class BulkheadStats {
+
+        private final String dependency;
+        private final int inFlight;
+        private final int maxConcurrent;
+        private final long rejected;
+
+        public BulkheadStats(String dependency, int inFlight, int maxConcurrent, long rejected) {
+            this.dependency = dependency;
+            this.inFlight = inFlight;
+            this.maxConcurrent = maxConcurrent;
+            this.rejected = rejected;
+        }
+
+        public String getDependency() {
+            return dependency;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+    }
+
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A durable queue of outgoing emails. Queued mail is appended to a local journal file
+ * before {@link #enqueue} returns, so it survives a restart, and is then sent by a
+ * background worker.
+ * <p>
+ * The worker sends ready mail in batches, recording the outcome of a whole batch with a
+ * single journal write. Failed sends are retried with exponential backoff, mail that still
+ * fails after the maximum number of attempts is moved to a dead letter file. The journal is
+ * compacted once enough of it refers to mail we have finished with. Retry counts are kept in
+ * memory only, mail recovered after a restart starts its attempts again.
+ */
+public class MailOutbox {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailOutbox.class);
+
+    private static final String JOURNAL_FILE = "outbox.journal";
+    private static final String DEAD_LETTER_FILE = "outbox.dead";
+
+    private static final String OP_QUEUED = "Q";
+    private static final String OP_SENT = "S";
+    private static final String OP_DEAD = "D";
+
+    // rewrite the journal once this many finished records have built up in it
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    // the send rate we report is taken over this many of the most recent seconds
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path journalPath;
+    private final Path deadLetterPath;
+    private final Predicate<MailRequest> sender;
+    private final boolean fsync;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    private final DelayQueue<OutboxEntry> ready = new DelayQueue<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("mail-outbox"));
+
+    // guarded by this
+    private FileChannel journal;
+    private int finishedRecords;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final AtomicLong lastBatchMillis = new AtomicLong();
+    private final SendRate sendRate = new SendRate(RATE_WINDOW_SECONDS);
+
+    public MailOutbox(File directory, Predicate<MailRequest> sender, boolean fsync, int batchSize,
+                      int maxAttempts, long backoffMillis, long maxBackoffMillis) throws IOException {
+        this.sender = sender;
+        this.fsync = fsync;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+
+        Files.createDirectories(directory.toPath());
+        this.journalPath = directory.toPath().resolve(JOURNAL_FILE);
+        this.deadLetterPath = directory.toPath().resolve(DEAD_LETTER_FILE);
+
+        List<OutboxEntry> recovered = replay();
+        synchronized (this) {
+            rewriteJournal(recovered);
+        }
+        ready.addAll(recovered);
+        if (!recovered.isEmpty())
+            LOG.info("Recovered {} unsent emails from the outbox journal {}", recovered.size(), journalPath);
+
+        worker.execute(this::drain);
+    }
+
+    /**
+     * Record an email in the journal and queue it for sending.
+     *
+     * @param from    sender address
+     * @param to      recipient addresses
+     * @param subject subject line
+     * @param body    message body
+     * @return the outbox id of the queued email
+     * @throws IOException if the email could not be written to the journal
+     */
+    public long enqueue(String from, List<String> to, String subject, String body) throws IOException {
+        OutboxRecord record = new OutboxRecord(OP_QUEUED, ids.incrementAndGet());
+        record.from = from;
+        record.to = new ArrayList<>(to);
+        record.subject = subject;
+        record.body = body;
+
+        synchronized (this) {
+            append(Collections.singletonList(record));
+            // queue it while we hold the journal so a compaction cannot miss it
+            ready.add(new OutboxEntry(record));
+        }
+        enqueued.increment();
+        return record.id;
+    }
+
+    /**
+     * @return a snapshot of the outbox counters
+     */
+    public OutboxStats getStats() {
+        return new OutboxStats(ready.size(), enqueued.sum(), sent.sum(), sendRate.perSecond(),
+                retries.sum(), deadLettered.sum(), lastBatchMillis.get());
+    }
+
+    /**
+     * Stop the worker and close the journal, unsent mail stays in the journal.
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+        synchronized (this) {
+            try {
+                if (journal != null)
+                    journal.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close the outbox journal", e);
+            }
+        }
+    }
+
+    private void drain() {
+        List<OutboxEntry> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(ready.take());
+                ready.drainTo(batch, batchSize - 1);
+                sendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendBatch(List<OutboxEntry> batch) {
+        long start = System.nanoTime();
+        List<OutboxRecord> outcomes = new ArrayList<>(batch.size());
+        List<OutboxEntry> dead = new ArrayList<>();
+        int sentInBatch = 0;
+
+        for (OutboxEntry entry : batch) {
+            OutboxRecord record = entry.record;
+            boolean success;
+            try {
+                success = sender.test(new MailRequest(record.from, record.to, record.subject, record.body));
+            } catch (RuntimeException e) {
+                LOG.error("Failed to send outbox email {}", record.id, e);
+                success = false;
+            }
+
+            if (success) {
+                sent.increment();
+                sentInBatch++;
+                outcomes.add(new OutboxRecord(OP_SENT, record.id));
+            } else if (++entry.attempts >= maxAttempts) {
+                deadLettered.increment();
+                dead.add(entry);
+                outcomes.add(new OutboxRecord(OP_DEAD, record.id));
+            } else {
+                retries.increment();
+                long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(entry.attempts - 1, 30));
+                entry.readyAt = System.currentTimeMillis() + backoff;
+                LOG.info("Outbox email {} failed (attempt {}), retrying in {}ms",
+                        record.id, entry.attempts, backoff);
+                ready.add(entry);
+            }
+        }
+
+        try {
+            if (!dead.isEmpty())
+                writeDeadLetters(dead);
+            synchronized (this) {
+                append(outcomes);
+                finishedRecords += outcomes.size();
+                if (finishedRecords >= COMPACT_THRESHOLD)
+                    compact();
+            }
+        } catch (IOException e) {
+            // the mail was handled, at worst it is sent again after a restart
+            LOG.error("Failed to record outbox batch outcome in the journal", e);
+        }
+
+        sendRate.record(sentInBatch);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastBatchMillis.set(elapsedMillis);
+        LOG.debug("Outbox batch of {} emails took {}ms", batch.size(), elapsedMillis);
+    }
+
+    private void writeDeadLetters(List<OutboxEntry> dead) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (OutboxEntry entry : dead) {
+            LOG.error("Outbox email {} failed {} times, moving it to {}",
+                    entry.record.id, entry.attempts, deadLetterPath);
+            lines.append(mapper.writeValueAsString(entry.record)).append('\n');
+        }
+        Files.write(deadLetterPath, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Read the journal, returning the mail that was queued but never sent or dead lettered.
+     */
+    private List<OutboxEntry> replay() throws IOException {
+        Map<Long, OutboxRecord> pending = new LinkedHashMap<>();
+        if (Files.exists(journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty())
+                        continue;
+                    OutboxRecord record;
+                    try {
+                        record = mapper.readValue(line, OutboxRecord.class);
+                    } catch (IOException e) {
+                        // most likely a torn write at the end of the journal
+                        LOG.warn("Skipping unreadable outbox journal record");
+                        continue;
+                    }
+                    ids.set(Math.max(ids.get(), record.id));
+                    if (OP_QUEUED.equals(record.op)) {
+                        pending.put(record.id, record);
+                    } else {
+                        pending.remove(record.id);
+                    }
+                }
+            }
+        }
+
+        List<OutboxEntry> entries = new ArrayList<>(pending.size());
+        pending.values().forEach(record -> entries.add(new OutboxEntry(record)));
+        return entries;
+    }
+
+    private void compact() throws IOException {
+        List<OutboxEntry> pending = new ArrayList<>(ready);
+        rewriteJournal(pending);
+        LOG.debug("Compacted the outbox journal to {} records", pending.size());
+    }
+
+    /**
+     * Atomically replace the journal with one holding only the given mail.
+     */
+    private void rewriteJournal(List<OutboxEntry> pending) throws IOException {
+        Path tmp = journalPath.resolveSibling(JOURNAL_FILE + ".tmp");
+        StringBuilder lines = new StringBuilder();
+        for (OutboxEntry entry : pending)
+            lines.append(mapper.writeValueAsString(entry.record)).append('\n');
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+
+        if (journal != null)
+            journal.close();
+        Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        finishedRecords = 0;
+    }
+
+    private void append(List<OutboxRecord> records) throws IOException {
+        if (records.isEmpty())
+            return;
+
+        StringBuilder lines = new StringBuilder();
+        for (OutboxRecord record : records)
+            lines.append(mapper.writeValueAsString(record)).append('\n');
+
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+            journal.write(buffer);
+        if (fsync)
+            journal.force(false);
+    }
+
+    private static final class OutboxEntry implements Delayed {
+
+        private final OutboxRecord record;
+        private volatile long readyAt = System.currentTimeMillis();
+        private int attempts;
+
+        private OutboxEntry(OutboxRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+    }
+
+    /**
+     * Mail sent in each of the last few seconds, so the rate we report follows what the
+     * worker is doing now rather than averaging over our whole uptime.
+     */
+    private static final class SendRate {
+
+        private final long[] counts;
+        private final long[] seconds;
+        private final long startedAt = currentSecond();
+
+        private SendRate(int windowSeconds) {
+            this.counts = new long[windowSeconds];
+            this.seconds = new long[windowSeconds];
+            Arrays.fill(seconds, -1L);
+        }
+
+        synchronized void record(int sent) {
+            long now = currentSecond();
+            int slot = (int) (now % counts.length);
+            if (seconds[slot] != now) {
+                seconds[slot] = now;
+                counts[slot] = 0;
+            }
+            counts[slot] += sent;
+        }
+
+        synchronized double perSecond() {
+            long now = currentSecond();
+            long total = 0;
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (now - seconds[slot] < counts.length)
+                    total += counts[slot];
+            }
+            // until we have been up for a whole window, average over the time we have been up
+            return total / (double) Math.min(counts.length, now - startedAt + 1);
+        }
+
+        private static long currentSecond() {
+            return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        }
+
+    }
+
+    /**
+     * A line in the journal, either a queued email or the outcome for one.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static final class OutboxRecord {
+
+        public String op;
+        public long id;
+        public String from;
+        public List<String> to;
+        public String subject;
+        public String body;
+
+        // for Jackson
+        OutboxRecord() {
+        }
+
+        OutboxRecord(String op, long id) {
+            this.op = op;
+            this.id = id;
+        }
+
+    }
+
+    /**
+     * Point in time view of the outbox counters.
+     */
+    public static final class OutboxStats {
+
+        private final int depth;
+        private final long enqueued;
+        private final long sent;
+        private final double sentPerSecond;
+        private final long retries;
+        private final long deadLettered;
+        private final long lastBatchMillis;
+
+        public OutboxStats(int depth, long enqueued, long sent, double sentPerSecond, long retries,
+                           long deadLettered, long lastBatchMillis) {
+            this.depth = depth;
+            this.enqueued = enqueued;
+            this.sent = sent;
+            this.sentPerSecond = sentPerSecond;
+            this.retries = retries;
+            this.deadLettered = deadLettered;
+            this.lastBatchMillis = lastBatchMillis;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return mail sent per second over the last minute
+         */
+        public double getSentPerSecond() {
+            return sentPerSecond;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getDeadLettered() {
+            return deadLettered;
+        }
+
+        public long getLastBatchMillis() {
+            return lastBatchMillis;
+        }
+
+    }
+
+}
@@ -3,6 +3,8 @@
  */
 package com.appworks.service.example.services;
 
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.MailGateway;
 import com.opentext.otag.sdk.client.v3.MailClient;
 import com.opentext.otag.sdk.types.v3.MailRequest;
 import com.opentext.otag.sdk.types.v3.MailResult;
@@ -10,18 +12,108 @@ import com.opentext.otag.service.context.components.AWComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Simple AppWorks component that uses the SDK mail client to send an email, recording
  * the outcome of the request.
+ * <p>
+ * Mail can also be queued via {@link #queueEmail}, it is then written to a local
+ * {@link MailOutbox} and sent (and retried) in the background.
+ * <p>
+ * Mail to a large distribution list goes through {@link #sendBulkEmail}, which splits the
+ * recipients into chunks sent concurrently, see {@link BulkMailSender}.
  */
 public class MailerService implements AWComponent {
 
     private static final Logger LOG = LoggerFactory.getLogger(MailerService.class);
 
-    private final MailClient mailClient;
+    private final MailGateway mailGateway;
+
+    private final MailOutbox outbox;
+
+    private final BulkMailSender bulkSender;
 
     public MailerService(MailClient mailClient) {
-        this.mailClient = mailClient;
+        this(MailGateway.of(mailClient));
+    }
+
+    public MailerService(MailGateway mailGateway) {
+        this.mailGateway = mailGateway;
+        this.outbox = openOutbox();
+        this.bulkSender = new BulkMailSender(this::sendEmail, this::queueEmail,
+                Integer.getInteger(ServiceConstants.MAIL_BULK_CHUNK_SIZE_PROPERTY,
+                        ServiceConstants.DEFAULT_MAIL_BULK_CHUNK_SIZE),
+                Integer.getInteger(ServiceConstants.MAIL_BULK_PARALLELISM_PROPERTY,
+                        ServiceConstants.DEFAULT_MAIL_BULK_PARALLELISM),
+                Integer.getInteger(ServiceConstants.MAIL_BULK_CHUNKS_PER_SECOND_PROPERTY,
+                        ServiceConstants.DEFAULT_MAIL_BULK_CHUNKS_PER_SECOND),
+                Integer.getInteger(ServiceConstants.MAIL_BULK_MAX_ATTEMPTS_PROPERTY,
+                        ServiceConstants.DEFAULT_MAIL_BULK_MAX_ATTEMPTS),
+                Long.getLong(ServiceConstants.MAIL_BULK_BACKOFF_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_MAIL_BULK_BACKOFF_MS));
+    }
+
+    /**
+     * Send an email to a large distribution list without waiting for it. The recipients are
+     * split into chunks sent concurrently at a limited rate, only the chunks that fail are
+     * retried, and those that keep failing are queued in our outbox.
+     *
+     * @param from    sender address
+     * @param to      recipient addresses
+     * @param subject subject line
+     * @param body    message body
+     * @return completes with the outcome of every chunk
+     */
+    public CompletableFuture<BulkMailSender.BulkMailResult> sendBulkEmail(String from, List<String> to,
+                                                                       String subject, String body) {
+        return bulkSender.send(from, to, subject, body);
+    }
+
+    /**
+     * Queue an email for sending, the call returns once the email is safely in our
+     * outbox journal.
+     *
+     * @param from    sender address
+     * @param to      recipient addresses
+     * @param subject subject line
+     * @param body    message body
+     * @return true if the email was queued, false if it could not be recorded
+     */
+    public boolean queueEmail(String from, List<String> to, String subject, String body) {
+        if (outbox == null) {
+            LOG.error("Mail outbox is unavailable, unable to queue email \"{}\"", subject);
+            return false;
+        }
+
+        try {
+            long id = outbox.enqueue(from, to, subject, body);
+            LOG.debug("Queued email {} \"{}\" for {} recipients", id, subject, to.size());
+            return true;
+        } catch (IOException e) {
+            LOG.error("Failed to write email \"" + subject + "\" to the outbox journal", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return a snapshot of the outbox counters, or null if the outbox is unavailable
+     */
+    public MailOutbox.OutboxStats getOutboxStats() {
+        return outbox == null ? null : outbox.getStats();
+    }
+
+    /**
+     * Stop sending queued mail, anything unsent is picked up again on the next start.
+     */
+    public void shutdown() {
+        // first, so the chunks it gives up on are written to the outbox before that closes
+        bulkSender.shutdown();
+        if (outbox != null)
+            outbox.shutdown();
     }
 
     /**
@@ -32,7 +124,7 @@ public class MailerService implements AWComponent {
      */
     public boolean sendEmail(MailRequest mailRequest) {
         try {
-            MailResult mailResult = mailClient.sendMail(mailRequest);
+            MailResult mailResult = mailGateway.sendMail(mailRequest);
             if (mailResult.isSuccess()) {
                 LOG.info("Successfully send email via OTAG service endpoint");
                 LOG.info("MailResult message=" + mailResult.getMessage());
@@ -49,4 +141,27 @@ public class MailerService implements AWComponent {
         return false;
     }
 
+    private MailOutbox openOutbox() {
+        String defaultDir = new File(System.getProperty("catalina.base",
+                System.getProperty("java.io.tmpdir")), "myservice-outbox").getPath();
+        File directory = new File(System.getProperty(ServiceConstants.MAIL_OUTBOX_DIR_PROPERTY, defaultDir));
+
+        try {
+            return new MailOutbox(directory, this::sendEmail,
+                    Boolean.parseBoolean(System.getProperty(ServiceConstants.MAIL_OUTBOX_FSYNC_PROPERTY,
+                            String.valueOf(ServiceConstants.DEFAULT_MAIL_OUTBOX_FSYNC))),
+                    Integer.getInteger(ServiceConstants.MAIL_OUTBOX_BATCH_SIZE_PROPERTY,
+                            ServiceConstants.DEFAULT_MAIL_OUTBOX_BATCH_SIZE),
+                    Integer.getInteger(ServiceConstants.MAIL_OUTBOX_MAX_ATTEMPTS_PROPERTY,
+                            ServiceConstants.DEFAULT_MAIL_OUTBOX_MAX_ATTEMPTS),
+                    Long.getLong(ServiceConstants.MAIL_OUTBOX_BACKOFF_MS_PROPERTY,
+                            ServiceConstants.DEFAULT_MAIL_OUTBOX_BACKOFF_MS),
+                    Long.getLong(ServiceConstants.MAIL_OUTBOX_MAX_BACKOFF_MS_PROPERTY,
+                            ServiceConstants.DEFAULT_MAIL_OUTBOX_MAX_BACKOFF_MS));
+        } catch (IOException e) {
+            LOG.error("Failed to open the mail outbox in " + directory + ", queued mail is disabled", e);
+            return null;
+        }
+    }
+
 }
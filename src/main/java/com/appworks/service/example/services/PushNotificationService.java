@@ -3,38 +3,108 @@
  */
 package com.appworks.service.example.services;
 
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.NotificationsGateway;
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.appworks.service.example.util.OverflowPolicy;
 import com.opentext.otag.sdk.client.v3.NotificationsClient;
-import com.opentext.otag.sdk.client.v3.RuntimesClient;
 import com.opentext.otag.sdk.types.v3.api.SDKResponse;
 import com.opentext.otag.sdk.types.v3.api.error.APIException;
-import com.opentext.otag.sdk.types.v3.apps.Runtime;
-import com.opentext.otag.sdk.types.v3.apps.Runtimes;
 import com.opentext.otag.sdk.types.v3.notification.ClientPushNotificationRequest;
 import com.opentext.otag.sdk.types.v3.notification.GeneralPayload;
 import com.opentext.otag.service.context.components.AWComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Service to demonstrate the use of the Gateways push notification API. A custom
  * component that can be added to the shared registry.
+ * <p>
+ * The Runtimes we target are read from the shared {@link RuntimesRegistry} snapshot
+ * rather than listed from the Gateway for every push.
+ * <p>
+ * Notifications can also be sent asynchronously, see {@link #sendAsync(PushMessage)}. These
+ * are queued (the queue is bounded, see {@link OverflowPolicy}) and sent by a small pool of
+ * workers. Each worker takes a batch of queued messages and merges those sharing a title and
+ * summary into a single Gateway request addressed to all of their recipients.
  */
 public class PushNotificationService implements AWComponent {
 
     private static final Logger LOG = LoggerFactory.getLogger(PushNotificationService.class);
 
-    private NotificationsClient notificationsClient;
-    private RuntimesClient runtimesClient;
+    private static final String TEST_MESSAGE_TITLE = "Push notification from MyService";
+
+    private NotificationsGateway notificationsGateway;
+    private RuntimesRegistry runtimesRegistry;
+
+    private final BlockingQueue<PendingPush> queue;
+    private final ExecutorService workers;
+    private final int workerCount;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private volatile boolean stopped;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder requestsFailed = new LongAdder();
+    private final LongAdder totalBatchMillis = new LongAdder();
+    private final AtomicLong lastBatchMillis = new AtomicLong();
 
     public PushNotificationService(NotificationsClient notificationsClient,
-                                   RuntimesClient runtimesClient) {
-        this.notificationsClient = notificationsClient;
-        this.runtimesClient = runtimesClient;
+                                   RuntimesRegistry runtimesRegistry) {
+        this(NotificationsGateway.of(notificationsClient), runtimesRegistry);
+    }
+
+    public PushNotificationService(NotificationsGateway notificationsGateway,
+                                   RuntimesRegistry runtimesRegistry) {
+        this.notificationsGateway = notificationsGateway;
+        this.runtimesRegistry = runtimesRegistry;
+
+        this.queue = new ArrayBlockingQueue<>(Integer.getInteger(
+                ServiceConstants.PUSH_QUEUE_PROPERTY, ServiceConstants.DEFAULT_PUSH_QUEUE));
+        this.batchSize = Integer.getInteger(ServiceConstants.PUSH_BATCH_SIZE_PROPERTY,
+                ServiceConstants.DEFAULT_PUSH_BATCH_SIZE);
+        this.lingerMillis = Long.getLong(ServiceConstants.PUSH_LINGER_MS_PROPERTY,
+                ServiceConstants.DEFAULT_PUSH_LINGER_MS);
+        this.overflowPolicy = OverflowPolicy.parse(
+                System.getProperty(ServiceConstants.PUSH_OVERFLOW_POLICY_PROPERTY), OverflowPolicy.BLOCK);
+        this.blockTimeoutMillis = Long.getLong(ServiceConstants.PUSH_BLOCK_TIMEOUT_MS_PROPERTY,
+                ServiceConstants.DEFAULT_PUSH_BLOCK_TIMEOUT_MS);
+
+        this.workerCount = Integer.getInteger(ServiceConstants.PUSH_WORKERS_PROPERTY,
+                ServiceConstants.DEFAULT_PUSH_WORKERS);
+        this.workers = Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("push-sender"));
+    }
+
+    /**
+     * Start the workers that send our queued notifications, until then they are only queued.
+     */
+    public void start() {
+        for (int i = 0; i < workerCount; i++)
+            workers.execute(this::drainQueue);
     }
 
     /**
@@ -44,29 +114,11 @@ public class PushNotificationService implements AWComponent {
      */
     public void sendTestMessage(String message) {
         try {
-            Set<String> runtimes = getRuntimes();
-            // log the Runtimes the Gateway knew about
-            runtimes.forEach(s -> LOG.info("Retrieved runtime " + s));
-
-            // this is the default data payload, it gets passed to the client and potential
-            // AppWorks apps if we supplied a target rather than just a summary
-            GeneralPayload payload = new GeneralPayload(message);
-
-            // this request will be accepted by the Gateway but will not succeed, the request
-            // recipients in particular wont be eligible to receive a notification
-            ClientPushNotificationRequest testRequest = new ClientPushNotificationRequest.Builder()
-                    .title("Push notification from MyService")
-                    .summary(message)
-                    .addClient("dummyClientId")
-                    .addUser("someuser")
-                    .addGroup("otagadmins").addGroup("otadmins")
-                    .runtimes(runtimes)
-                    .data(payload.asMap())
-                    .build();
-
-            LOG.info(String.format("Sending test push notification - %s", testRequest));
-
-            SDKResponse sdkResponse = notificationsClient.sendPushNotification(testRequest);
+            PushMessage testMessage = testMessage(message);
+            LOG.info(String.format("Sending test push notification - %s", testMessage));
+
+            SDKResponse sdkResponse = notificationsGateway.sendPushNotification(
+                    buildRequest(testMessage, getRuntimes()));
             LOG.info("Push notification sent successfully = {}", sdkResponse.isSuccess());
         } catch (APIException e) {
             LOG.error("Failed to send test message, SDK call failed - {}", e.getCallInfo());
@@ -74,15 +126,337 @@ public class PushNotificationService implements AWComponent {
         }
     }
 
-    private Set<String> getRuntimes() throws APIException {
-        Runtimes allRuntimes = runtimesClient.getAllRuntimes();
-        List<String> runtimeNames = allRuntimes.getRuntimes()
-                .stream()
-                .map(Runtime::getName)
-                .peek(name -> LOG.info("Adding Runtime {} to the request", name))
-                .collect(Collectors.toList());
+    /**
+     * Queue a test push notification, it will be sent by our workers.
+     *
+     * @param message to send
+     * @return completes with true once the Gateway accepted the notification, false if it
+     * failed or was dropped
+     */
+    public CompletableFuture<Boolean> sendTestMessageAsync(String message) {
+        return sendAsync(testMessage(message));
+    }
+
+    /**
+     * Queue a push notification, it will be merged with other queued notifications sharing
+     * its title and summary and sent by our workers.
+     *
+     * @param message to send
+     * @return completes with true once the Gateway accepted the notification, false if it
+     * failed or was dropped, as it is straight away once we have been shut down
+     */
+    public CompletableFuture<Boolean> sendAsync(PushMessage message) {
+        PendingPush pending = new PendingPush(message);
+        submitted.increment();
+
+        if (stopped) {
+            drop(pending, "service is stopping");
+            return pending.result;
+        }
+
+        boolean queued;
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                queued = queue.offer(pending);
+                break;
+            case DROP_OLDEST:
+                queued = queue.offer(pending);
+                while (!queued) {
+                    PendingPush oldest = queue.poll();
+                    if (oldest != null)
+                        drop(oldest, "queue is full");
+                    queued = queue.offer(pending);
+                }
+                break;
+            default:
+                try {
+                    queued = queue.offer(pending, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+        }
+
+        if (!queued)
+            drop(pending, "queue is full");
+        else if (stopped && queue.remove(pending))
+            // we were shut down as we queued it, no worker is left to send it
+            drop(pending, "service is stopping");
+
+        return pending.result;
+    }
+
+    /**
+     * @return a snapshot of the async pipeline counters
+     */
+    public PushStats getStats() {
+        long batchCount = batches.sum();
+        return new PushStats(queue.size(), submitted.sum(), dropped.sum(), batchCount,
+                requestsSent.sum(), requestsFailed.sum(), lastBatchMillis.get(),
+                batchCount == 0 ? 0 : totalBatchMillis.sum() / batchCount);
+    }
+
+    /**
+     * Stop the workers, anything still queued and anything sent from now on is reported
+     * as dropped.
+     */
+    public void shutdown() {
+        stopped = true;
+        workers.shutdownNow();
+        List<PendingPush> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(pending -> drop(pending, "service is stopping"));
+    }
+
+    private void drop(PendingPush pending, String reason) {
+        dropped.increment();
+        LOG.warn("Push notification dropped as the {} - {}", reason, pending.message);
+        pending.result.complete(false);
+    }
+
+    private void drainQueue() {
+        List<PendingPush> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                // give a burst a moment to arrive so it can share a request
+                long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = lingerUntil - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0)
+                        break;
+                    PendingPush next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+
+                sendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batch.forEach(pending -> drop(pending, "service is stopping"));
+        }
+    }
+
+    private void sendBatch(List<PendingPush> batch) {
+        long start = System.nanoTime();
+
+        // merge the pushes that share title and summary
+        Map<String, List<PendingPush>> byContent = new LinkedHashMap<>();
+        batch.forEach(pending -> byContent
+                .computeIfAbsent(pending.message.getContentKey(), k -> new ArrayList<>())
+                .add(pending));
+
+        Set<String> runtimes = getRuntimes();
+        int succeeded = 0;
+        for (List<PendingPush> group : byContent.values()) {
+            PushMessage merged = PushMessage.merge(group);
+            boolean success;
+            try {
+                SDKResponse sdkResponse = notificationsGateway.sendPushNotification(
+                        buildRequest(merged, runtimes));
+                success = sdkResponse != null && sdkResponse.isSuccess();
+            } catch (APIException e) {
+                LOG.error("Failed to send push notification, SDK call failed - {}", e.getCallInfo());
+                success = false;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to send push notification", e);
+                success = false;
+            }
+
+            if (success) {
+                succeeded++;
+                requestsSent.increment();
+            } else {
+                requestsFailed.increment();
+            }
+            for (PendingPush pending : group)
+                pending.result.complete(success);
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        batches.increment();
+        totalBatchMillis.add(elapsedMillis);
+        lastBatchMillis.set(elapsedMillis);
+        LOG.info("Sent {} push requests for {} notifications in {}ms, {} succeeded",
+                byContent.size(), batch.size(), elapsedMillis, succeeded);
+    }
+
+    private ClientPushNotificationRequest buildRequest(PushMessage message, Set<String> runtimes) {
+        // this is the default data payload, it gets passed to the client and potential
+        // AppWorks apps if we supplied a target rather than just a summary
+        GeneralPayload payload = new GeneralPayload(message.getSummary());
+
+        ClientPushNotificationRequest.Builder builder = new ClientPushNotificationRequest.Builder()
+                .title(message.getTitle())
+                .summary(message.getSummary())
+                .runtimes(runtimes)
+                .data(payload.asMap());
+        message.getClients().forEach(builder::addClient);
+        message.getUsers().forEach(builder::addUser);
+        message.getGroups().forEach(builder::addGroup);
+
+        return builder.build();
+    }
+
+    private PushMessage testMessage(String message) {
+        // this request will be accepted by the Gateway but will not succeed, the request
+        // recipients in particular wont be eligible to receive a notification
+        return new PushMessage(TEST_MESSAGE_TITLE, message,
+                Collections.singleton("someuser"),
+                new LinkedHashSet<>(Arrays.asList("otagadmins", "otadmins")),
+                Collections.singleton("dummyClientId"));
+    }
+
+    private Set<String> getRuntimes() {
+        RuntimesRegistry.Snapshot snapshot = runtimesRegistry.getSnapshot();
+        LOG.debug("Adding {} Runtimes from snapshot {} to the request",
+                snapshot.getNames().size(), snapshot.getVersion());
+
+        return new HashSet<>(snapshot.getNames());
+    }
+
+    private static final class PendingPush {
+
+        private final PushMessage message;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private PendingPush(PushMessage message) {
+            this.message = message;
+        }
+
+    }
+
+    /**
+     * The content and recipients of a push notification.
+     */
+    public static final class PushMessage {
+
+        private final String title;
+        private final String summary;
+        private final Set<String> users;
+        private final Set<String> groups;
+        private final Set<String> clients;
+
+        public PushMessage(String title, String summary, Collection<String> users,
+                           Collection<String> groups, Collection<String> clients) {
+            this.title = title;
+            this.summary = summary;
+            this.users = Collections.unmodifiableSet(new LinkedHashSet<>(users));
+            this.groups = Collections.unmodifiableSet(new LinkedHashSet<>(groups));
+            this.clients = Collections.unmodifiableSet(new LinkedHashSet<>(clients));
+        }
+
+        private static PushMessage merge(List<PendingPush> group) {
+            PushMessage first = group.get(0).message;
+            if (group.size() == 1)
+                return first;
+
+            Set<String> users = new LinkedHashSet<>();
+            Set<String> groups = new LinkedHashSet<>();
+            Set<String> clients = new LinkedHashSet<>();
+            for (PendingPush pending : group) {
+                users.addAll(pending.message.users);
+                groups.addAll(pending.message.groups);
+                clients.addAll(pending.message.clients);
+            }
+            return new PushMessage(first.title, first.summary, users, groups, clients);
+        }
+
+        private String getContentKey() {
+            return title + '\u0000' + summary;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        public Set<String> getUsers() {
+            return users;
+        }
+
+        public Set<String> getGroups() {
+            return groups;
+        }
+
+        public Set<String> getClients() {
+            return clients;
+        }
+
+        @Override
+        public String toString() {
+            return "PushMessage{title='" + title + "', summary='" + summary + "', users=" + users +
+                    ", groups=" + groups + ", clients=" + clients + "}";
+        }
+
+    }
+
+    /**
+     * Point in time view of the async pipeline counters.
+     */
+    public static final class PushStats {
+
+        private final int queued;
+        private final long submitted;
+        private final long dropped;
+        private final long batches;
+        private final long requestsSent;
+        private final long requestsFailed;
+        private final long lastBatchMillis;
+        private final long averageBatchMillis;
+
+        public PushStats(int queued, long submitted, long dropped, long batches, long requestsSent,
+                         long requestsFailed, long lastBatchMillis, long averageBatchMillis) {
+            this.queued = queued;
+            this.submitted = submitted;
+            this.dropped = dropped;
+            this.batches = batches;
+            this.requestsSent = requestsSent;
+            this.requestsFailed = requestsFailed;
+            this.lastBatchMillis = lastBatchMillis;
+            this.averageBatchMillis = averageBatchMillis;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getRequestsSent() {
+            return requestsSent;
+        }
+
+        public long getRequestsFailed() {
+            return requestsFailed;
+        }
+
+        public long getLastBatchMillis() {
+            return lastBatchMillis;
+        }
+
+        public long getAverageBatchMillis() {
+            return averageBatchMillis;
+        }
 
-        return new HashSet<>(runtimeNames);
     }
 
 }
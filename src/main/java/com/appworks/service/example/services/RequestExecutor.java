@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.opentext.otag.service.context.components.AWComponent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the work behind our REST endpoints off the container's threads. Requests are suspended
+ * and handed to this bounded pool, so a slow Gateway ties up our workers rather than the
+ * servlet pool, and once the pool and its queue are full requests are turned away straight away.
+ *
+ * @see com.appworks.service.example.api.AbstractResource
+ */
+public class RequestExecutor implements AWComponent {
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public RequestExecutor() {
+        this(Integer.getInteger(ServiceConstants.API_THREADS_PROPERTY, ServiceConstants.DEFAULT_API_THREADS),
+                Integer.getInteger(ServiceConstants.API_QUEUE_PROPERTY, ServiceConstants.DEFAULT_API_QUEUE),
+                Long.getLong(ServiceConstants.API_TIMEOUT_MS_PROPERTY, ServiceConstants.DEFAULT_API_TIMEOUT_MS));
+    }
+
+    /**
+     * @param threads       workers
+     * @param queueSize     requests that may wait for a worker
+     * @param timeoutMillis how long a request may take before it is answered with an error
+     */
+    public RequestExecutor(int threads, int queueSize, long timeoutMillis) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory("api-request"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Queue the work for a suspended request.
+     *
+     * @param work the request's work
+     * @return the queued work, cancel it if the request is answered by other means
+     * @throws RejectedExecutionException if we have no room for the request
+     */
+    public Future<?> submit(Runnable work) {
+        try {
+            Future<?> future = executor.submit(() -> {
+                running.incrementAndGet();
+                try {
+                    work.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+            accepted.increment();
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    public void onTimeout() {
+        timedOut.increment();
+    }
+
+    /**
+     * @return how long a request may take before it is answered with an error
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public RequestStats getStats() {
+        return new RequestStats(running.get(), executor.getQueue().size(),
+                accepted.sum(), rejected.sum(), timedOut.sum());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Point in time view of our request handling.
+     */
+    public static final class RequestStats {
+
+        private final int inFlight;
+        private final int queued;
+        private final long accepted;
+        private final long rejected;
+        private final long timedOut;
+
+        public RequestStats(int inFlight, int queued, long accepted, long rejected, long timedOut) {
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * @return requests being worked on right now, including any that already timed out
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return requests waiting for a worker
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+    }
+
+}
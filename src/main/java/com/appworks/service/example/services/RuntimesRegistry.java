@@ -0,0 +1,174 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.RuntimesGateway;
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.opentext.otag.sdk.client.v3.RuntimesClient;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.sdk.types.v3.apps.Runtime;
+import com.opentext.otag.sdk.types.v3.apps.Runtimes;
+import com.opentext.otag.service.context.components.AWComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared view of the {@link Runtime}s the AppWorks Gateway knows about. The full listing
+ * is fetched once and then refreshed in the background, everyone else reads the current
+ * immutable {@link Snapshot} without calling the Gateway.
+ */
+public class RuntimesRegistry implements AWComponent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuntimesRegistry.class);
+
+    private final RuntimesGateway runtimesGateway;
+    private final long refreshIntervalMillis;
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("runtimes-refresh"));
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // the outcome of the first background refresh, so startup can report it without listing again
+    private final CompletableFuture<Snapshot> firstRefresh = new CompletableFuture<>();
+
+    public RuntimesRegistry(RuntimesClient runtimesClient) {
+        this(RuntimesGateway.of(runtimesClient));
+    }
+
+    public RuntimesRegistry(RuntimesGateway runtimesGateway) {
+        this(runtimesGateway, Long.getLong(ServiceConstants.RUNTIMES_REFRESH_INTERVAL_MS_PROPERTY,
+                ServiceConstants.DEFAULT_RUNTIMES_REFRESH_INTERVAL_MS));
+    }
+
+    public RuntimesRegistry(RuntimesGateway runtimesGateway, long refreshIntervalMillis) {
+        this.runtimesGateway = runtimesGateway;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Start refreshing the snapshot in the background at the configured interval. If we have
+     * never managed to list the Runtimes the first refresh runs straight away.
+     */
+    public void start() {
+        long initialDelayMillis = snapshot.getVersion() == 0 ? 0L : refreshIntervalMillis;
+        if (initialDelayMillis > 0)
+            firstRefresh.complete(snapshot);
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly,
+                initialDelayMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        firstRefresh.cancel(false);
+    }
+
+    /**
+     * @return completes with the snapshot once the first refresh after {@link #start()} is
+     * done, or with the error it failed with
+     */
+    public CompletableFuture<Snapshot> getFirstRefresh() {
+        return firstRefresh;
+    }
+
+    /**
+     * Get the current snapshot, without calling the Gateway. Until the Runtimes have been
+     * listed this is an empty snapshot at version 0, the background refresh fills it in.
+     *
+     * @return the current snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Fetch the Runtimes from the Gateway and publish them as a new snapshot.
+     *
+     * @return the new snapshot
+     * @throws APIException if the Gateway call failed, the current snapshot is kept
+     */
+    public synchronized Snapshot refresh() throws APIException {
+        Runtimes allRuntimes = runtimesGateway.getAllRuntimes();
+        List<Runtime> runtimes = allRuntimes.getRuntimes();
+
+        Map<String, Runtime> byName = new LinkedHashMap<>();
+        if (runtimes != null)
+            runtimes.forEach(runtime -> byName.put(runtime.getName(), runtime));
+
+        Snapshot refreshed = new Snapshot(snapshot.getVersion() + 1, System.currentTimeMillis(), byName);
+        snapshot = refreshed;
+        LOG.debug("Runtimes snapshot {} holds {} Runtimes", refreshed.getVersion(), byName.size());
+        return refreshed;
+    }
+
+    private void refreshQuietly() {
+        try {
+            firstRefresh.complete(refresh());
+        } catch (APIException e) {
+            LOG.error("Runtimes retrieval call failed - {}", e.getCallInfo());
+            firstRefresh.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            // don't let a failure cancel the scheduled refresh
+            LOG.error("Runtimes refresh failed", e);
+            firstRefresh.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Immutable, name indexed view of the Runtimes at a point in time.
+     */
+    public static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(0, 0, Collections.emptyMap());
+
+        private final long version;
+        private final long fetchedAt;
+        private final Map<String, Runtime> runtimesByName;
+
+        private Snapshot(long version, long fetchedAt, Map<String, Runtime> runtimesByName) {
+            this.version = version;
+            this.fetchedAt = fetchedAt;
+            this.runtimesByName = Collections.unmodifiableMap(runtimesByName);
+        }
+
+        /**
+         * @return increases by one with every successful refresh, 0 if we never managed one
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public Set<String> getNames() {
+            return runtimesByName.keySet();
+        }
+
+        public Optional<Runtime> getRuntime(String name) {
+            return Optional.ofNullable(runtimesByName.get(name));
+        }
+
+        public Map<String, Runtime> getRuntimesByName() {
+            return runtimesByName;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.util.LatencyHistogram;
+import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.service.context.components.AWComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time goes. Keeps a latency histogram and an error count for each SDK call we
+ * make to the Gateway and for each of our REST endpoints. Recording never blocks, so it is
+ * cheap enough to leave on for every call.
+ *
+ * @see com.appworks.service.example.api.MetricsResource
+ */
+public class ServiceMetrics implements AWComponent {
+
+    private final Map<String, Timer> sdkCalls = new ConcurrentHashMap<>();
+    private final Map<String, Timer> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * A Gateway call made via an SDK client.
+     */
+    @FunctionalInterface
+    public interface SdkCall<T> {
+        T call() throws APIException;
+    }
+
+    /**
+     * Make an SDK call, recording how long it took and whether it failed.
+     *
+     * @param operation the SDK operation, e.g. getSetting
+     * @param call      the call
+     * @return the calls result
+     * @throws APIException if the call fails
+     */
+    public <T> T timeSdkCall(String operation, SdkCall<T> call) throws APIException {
+        Timer timer = sdkCalls.computeIfAbsent(operation, name -> new Timer());
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            timer.record(System.nanoTime() - started, failed);
+        }
+    }
+
+    /**
+     * @param endpoint    the endpoint, e.g. ServiceSettingsResource.getServiceConfig
+     * @param nanos       how long the request took
+     * @param serverError true if we answered with a 5xx
+     */
+    public void recordEndpoint(String endpoint, long nanos, boolean serverError) {
+        endpoints.computeIfAbsent(endpoint, name -> new Timer()).record(nanos, serverError);
+    }
+
+    public MetricsSnapshot getSnapshot() {
+        return new MetricsSnapshot(snapshot(sdkCalls), snapshot(endpoints));
+    }
+
+    /**
+     * @return our metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        MetricsSnapshot snapshot = getSnapshot();
+        StringBuilder text = new StringBuilder(4096);
+        appendSummary(text, "myservice_sdk_call", "operation",
+                "Calls made to the AppWorks Gateway via the SDK", snapshot.getSdkCalls());
+        appendSummary(text, "myservice_http_request", "endpoint",
+                "Requests served by our REST API", snapshot.getEndpoints());
+        return text.toString();
+    }
+
+    private static List<OperationStats> snapshot(Map<String, Timer> timers) {
+        List<OperationStats> stats = new ArrayList<>(timers.size());
+        new TreeMap<>(timers).forEach((name, timer) ->
+                stats.add(new OperationStats(name, timer.errors.sum(), timer.latencies.snapshot())));
+        return stats;
+    }
+
+    private static void appendSummary(StringBuilder text, String metric, String label, String help,
+                                      List<OperationStats> stats) {
+        String seconds = metric + "_seconds";
+        text.append("# HELP ").append(seconds).append(' ').append(help).append(", latency in seconds.\n");
+        text.append("# TYPE ").append(seconds).append(" summary\n");
+        for (OperationStats op : stats) {
+            LatencyHistogram.Snapshot latency = op.getLatency();
+            appendQuantile(text, seconds, label, op.getName(), "0.5", latency.getP50Micros());
+            appendQuantile(text, seconds, label, op.getName(), "0.9", latency.getP90Micros());
+            appendQuantile(text, seconds, label, op.getName(), "0.99", latency.getP99Micros());
+            appendQuantile(text, seconds, label, op.getName(), "0.999", latency.getP999Micros());
+            text.append(seconds).append("_sum{").append(label).append("=\"").append(op.getName()).append("\"} ")
+                    .append(toSeconds(latency.getMeanMicros() * latency.getCount())).append('\n');
+            text.append(seconds).append("_count{").append(label).append("=\"").append(op.getName()).append("\"} ")
+                    .append(latency.getCount()).append('\n');
+        }
+
+        String errors = metric + "_errors_total";
+        text.append("# HELP ").append(errors).append(' ').append(help).append(" that failed.\n");
+        text.append("# TYPE ").append(errors).append(" counter\n");
+        for (OperationStats op : stats) {
+            text.append(errors).append('{').append(label).append("=\"").append(op.getName()).append("\"} ")
+                    .append(op.getErrors()).append('\n');
+        }
+    }
+
+    private static void appendQuantile(StringBuilder text, String metric, String label, String name,
+                                       String quantile, long micros) {
+        text.append(metric).append('{').append(label).append("=\"").append(name)
+                .append("\",quantile=\"").append(quantile).append("\"} ")
+                .append(toSeconds(micros)).append('\n');
+    }
+
+    private static String toSeconds(double micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+
+    private static class Timer {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        void record(long nanos, boolean failed) {
+            latencies.recordNanos(nanos);
+            if (failed)
+                errors.increment();
+        }
+    }
+
+    /**
+     * Latency and error count of one SDK operation or endpoint.
+     */
+    public static class OperationStats {
+
+        private final String name;
+        private final long errors;
+        private final LatencyHistogram.Snapshot latency;
+
+        public OperationStats(String name, long errors, LatencyHistogram.Snapshot latency) {
+            this.name = name;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+    }
+
+    public static class MetricsSnapshot {
+
+        private final List<OperationStats> sdkCalls;
+        private final List<OperationStats> endpoints;
+
+        public MetricsSnapshot(List<OperationStats> sdkCalls, List<OperationStats> endpoints) {
+            this.sdkCalls = sdkCalls;
+            this.endpoints = endpoints;
+        }
+
+        public List<OperationStats> getSdkCalls() {
+            return sdkCalls;
+        }
+
+        public List<OperationStats> getEndpoints() {
+            return endpoints;
+        }
+
+    }
+
+}
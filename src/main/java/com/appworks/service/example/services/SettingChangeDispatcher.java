@@ -0,0 +1,102 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.util.OverflowPolicy;
+import com.appworks.service.example.util.StripedExecutor;
+import com.opentext.otag.service.context.components.AWComponent;
+import com.opentext.otag.service.context.components.AWComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs our handling of setting changes off the thread the SDK delivers them on, so a slow
+ * Gateway call made while handling one change does not hold up the delivery of the next.
+ * Changes to the same key are handled one at a time in the order they arrived, changes to
+ * other keys in parallel.
+ * <p>
+ * By default a full queue drops its oldest change rather than block the SDK. The cached value
+ * of a key whose change was dropped is invalidated, the next read fetches it again.
+ *
+ * @see com.appworks.service.example.handlers.CustomSettingsHandler
+ */
+public class SettingChangeDispatcher implements AWComponent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SettingChangeDispatcher.class);
+
+    private final StripedExecutor<String> executor;
+    private final List<Runnable> stopOnShutdown = new CopyOnWriteArrayList<>();
+    private volatile boolean shutdown;
+
+    public SettingChangeDispatcher() {
+        this(Integer.getInteger(ServiceConstants.SETTING_CHANGE_STRIPES_PROPERTY,
+                ServiceConstants.DEFAULT_SETTING_CHANGE_STRIPES),
+                Integer.getInteger(ServiceConstants.SETTING_CHANGE_QUEUE_PROPERTY,
+                        ServiceConstants.DEFAULT_SETTING_CHANGE_QUEUE),
+                OverflowPolicy.parse(System.getProperty(ServiceConstants.SETTING_CHANGE_OVERFLOW_POLICY_PROPERTY),
+                        OverflowPolicy.DROP_OLDEST),
+                Long.getLong(ServiceConstants.SETTING_CHANGE_BLOCK_TIMEOUT_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_SETTING_CHANGE_BLOCK_TIMEOUT_MS));
+    }
+
+    /**
+     * @param stripes            keys are spread over this many handler threads
+     * @param queueSize          changes each thread may have waiting
+     * @param overflowPolicy     what to do with a change when its thread's queue is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} holds the SDK thread
+     */
+    public SettingChangeDispatcher(int stripes, int queueSize, OverflowPolicy overflowPolicy,
+                                   long blockTimeoutMillis) {
+        this.executor = new StripedExecutor<>("settings-change-handler", stripes, queueSize,
+                overflowPolicy, blockTimeoutMillis, this::onDropped);
+    }
+
+    /**
+     * Queue work for a setting behind any earlier work for the same setting.
+     *
+     * @param key  the Setting key
+     * @param work the handling
+     */
+    public void dispatch(String key, Runnable work) {
+        executor.execute(key, work);
+    }
+
+    public StripedExecutor.StripeStats getStats() {
+        return executor.getStats();
+    }
+
+    /**
+     * Have something our change handlers started, such as a timer, stopped along with us.
+     * AppWorks creates the handlers, so they are not stopped like our components are.
+     *
+     * @param stop stops it, run at most once
+     */
+    public void stopOnShutdown(Runnable stop) {
+        stopOnShutdown.add(stop);
+        // we may have missed it
+        if (shutdown && stopOnShutdown.remove(stop))
+            stop.run();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+        for (Runnable stop : stopOnShutdown) {
+            if (stopOnShutdown.remove(stop))
+                stop.run();
+        }
+    }
+
+    private void onDropped(String key) {
+        LOG.warn("Dropped handling of a change to {}, our change queue is full", key);
+        SettingsService settingsService = AWComponentContext.getComponent(SettingsService.class);
+        if (settingsService != null)
+            settingsService.invalidate(key);
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.sdk.types.v3.settings.SettingType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declares a {@link Setting} this service needs the Gateway to hold, see
+ * {@link SettingsService#reconcileSettings(String, List)}.
+ */
+public class SettingDefinition {
+
+    /**
+     * The settings this service needs.
+     */
+    public static final List<SettingDefinition> SERVICE_SETTINGS = Collections.unmodifiableList(Arrays.asList(
+            new SettingDefinition(ServiceConstants.OUR_STRING_SETTING_KEY, SettingType.string,
+                    "A String Config", ServiceConstants.SETTING_TEXT, "DEFAULT VALUE!!!"),
+            new SettingDefinition(ServiceConstants.OUR_NUMBER_SETTING_KEY, SettingType.integer,
+                    "A Numeric Config", "999", "0"),
+            new SettingDefinition(ServiceConstants.OUR_BOOL_SETTING_KEY, SettingType.bool,
+                    "A Boolean Config", "true", "false"),
+            new SettingDefinition(ServiceConstants.OUR_JSON_SETTING_KEY, SettingType.json,
+                    "A JSON Config", ServiceConstants.SOME_JSON_CONTENT, ServiceConstants.SOME_JSON_CONTENT)));
+
+    private final String key;
+    private final SettingType type;
+    private final String label;
+    private final String initialValue;
+    private final String defaultValue;
+
+    public SettingDefinition(String key, SettingType type, String label, String initialValue, String defaultValue) {
+        this.key = key;
+        this.type = type;
+        this.label = label;
+        this.initialValue = initialValue;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Construct the Setting to create at the Gateway.
+     *
+     * @param appName the name of this service, ensures we associate the setting with the correct service
+     * @return a new Setting
+     */
+    public Setting toSetting(String appName) {
+        return new Setting(key, appName, type, label,
+                initialValue, defaultValue, label, false /* readOnly  */, null /* seqNo */);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public SettingType getType() {
+        return type;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getInitialValue() {
+        return initialValue;
+    }
+
+    public String getDefaultValue() {
+        return defaultValue;
+    }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.sdk.types.v3.settings.SettingType;
+
+import java.io.IOException;
+
+/**
+ * An immutable, typed view of a {@link Setting}. The Gateway holds every value as a string,
+ * we parse it according to its {@link SettingType} once, as the Setting is loaded or changed,
+ * rather than on every read. Integers and booleans are held unboxed and JSON as a parsed tree.
+ * <p>
+ * A value the Gateway holds that does not parse for its type (say it was edited in the admin
+ * console) is kept as a plain string, see {@link #isValid()}.
+ */
+public final class SettingValue {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String key;
+    private final SettingType type;
+    private final String raw;
+    private final Long seqNo;
+    private final boolean valid;
+    private final boolean fromSnapshot;
+    private final boolean stale;
+
+    private final int intValue;
+    private final boolean boolValue;
+    private final JsonNode jsonValue;
+
+    private SettingValue(String key, SettingType type, String raw, Long seqNo, boolean valid, boolean fromSnapshot,
+                         boolean stale, int intValue, boolean boolValue, JsonNode jsonValue) {
+        this.key = key;
+        this.type = type;
+        this.raw = raw;
+        this.seqNo = seqNo;
+        this.valid = valid;
+        this.fromSnapshot = fromSnapshot;
+        this.stale = stale;
+        this.intValue = intValue;
+        this.boolValue = boolValue;
+        this.jsonValue = jsonValue;
+    }
+
+    /**
+     * Parse the value of a Setting.
+     *
+     * @param setting the Setting
+     * @return its typed value, never null
+     */
+    public static SettingValue of(Setting setting) {
+        return of(setting, false);
+    }
+
+    /**
+     * Parse the value of a Setting.
+     *
+     * @param setting      the Setting
+     * @param fromSnapshot true if we restored the Setting from our local snapshot
+     * @return its typed value, never null
+     */
+    public static SettingValue of(Setting setting, boolean fromSnapshot) {
+        SettingType type = setting.getType() != null ? setting.getType() : SettingType.string;
+        String raw = setting.getValue();
+        if (raw == null)
+            return new SettingValue(setting.getKey(), type, null, setting.getSeqNo(), true, fromSnapshot, false,
+                    0, false, null);
+
+        try {
+            switch (type) {
+                case integer:
+                    return new SettingValue(setting.getKey(), type, raw, setting.getSeqNo(), true, fromSnapshot, false,
+                            parseInt(raw), false, null);
+                case bool:
+                    return new SettingValue(setting.getKey(), type, raw, setting.getSeqNo(), true, fromSnapshot, false,
+                            0, parseBoolean(raw), null);
+                case json:
+                    return new SettingValue(setting.getKey(), type, raw, setting.getSeqNo(), true, fromSnapshot, false,
+                            0, false, parseJson(raw));
+                default:
+                    return new SettingValue(setting.getKey(), type, raw, setting.getSeqNo(), true, fromSnapshot, false,
+                            0, false, null);
+            }
+        } catch (IllegalArgumentException e) {
+            return new SettingValue(setting.getKey(), type, raw, setting.getSeqNo(), false, fromSnapshot, false,
+                    0, false, null);
+        }
+    }
+
+    /**
+     * @return a copy of this value flagged as stale, we hold it past its time to live as the
+     * Gateway could not be asked for it in time
+     */
+    SettingValue stale() {
+        return new SettingValue(key, type, raw, seqNo, valid, fromSnapshot, true, intValue, boolValue, jsonValue);
+    }
+
+    /**
+     * Check a new value parses for a Setting's type, before we save it.
+     *
+     * @param type  the Settings type
+     * @param value the new value
+     * @throws IllegalArgumentException if it does not
+     */
+    public static void validate(SettingType type, String value) {
+        if (type == null || value == null)
+            return;
+
+        switch (type) {
+            case integer:
+                parseInt(value);
+                break;
+            case bool:
+                parseBoolean(value);
+                break;
+            case json:
+                parseJson(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"" + value + "\" is not an integer");
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        // Boolean.valueOf would quietly read anything else as false
+        String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed))
+            return true;
+        if ("false".equalsIgnoreCase(trimmed))
+            return false;
+        throw new IllegalArgumentException("\"" + value + "\" is not true or false");
+    }
+
+    private static JsonNode parseJson(String value) {
+        try {
+            JsonNode json = MAPPER.readTree(value);
+            if (json == null || json.isMissingNode())
+                throw new IllegalArgumentException("An empty value is not JSON");
+            return json;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("The value is not valid JSON - " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The value is not valid JSON - " + e.getMessage());
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public SettingType getType() {
+        return type;
+    }
+
+    /**
+     * @return the value as the Gateway holds it
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    public Long getSeqNo() {
+        return seqNo;
+    }
+
+    /**
+     * @return false if the value the Gateway holds does not parse for the Settings type
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return true if the value came from our local snapshot rather than the Gateway, it may be out of date
+     */
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+
+    /**
+     * @return true if the Gateway has not confirmed the value recently, either it came from our
+     * local snapshot or we could not refresh it in time
+     */
+    public boolean isStale() {
+        return stale || fromSnapshot;
+    }
+
+    /**
+     * @return the value of an integer Setting
+     * @throws IllegalStateException if this is not a valid integer Setting
+     */
+    public int asInt() {
+        checkType(SettingType.integer);
+        return intValue;
+    }
+
+    /**
+     * @return the value of a bool Setting
+     * @throws IllegalStateException if this is not a valid bool Setting
+     */
+    public boolean asBoolean() {
+        checkType(SettingType.bool);
+        return boolValue;
+    }
+
+    /**
+     * @return the parsed value of a json Setting, share it but don't modify it
+     * @throws IllegalStateException if this is not a valid json Setting
+     */
+    public JsonNode asJson() {
+        checkType(SettingType.json);
+        return jsonValue;
+    }
+
+    /**
+     * @return the value as it should appear in our JSON responses, a number, boolean, JSON
+     * tree or string
+     */
+    public Object toJsonValue() {
+        if (!valid || raw == null)
+            return raw;
+
+        switch (type) {
+            case integer:
+                return intValue;
+            case bool:
+                return boolValue;
+            case json:
+                return jsonValue;
+            default:
+                return raw;
+        }
+    }
+
+    private void checkType(SettingType expected) {
+        if (type != expected || !valid || raw == null)
+            throw new IllegalStateException("Setting " + key + " does not hold a valid " + expected +
+                    " value, it is a " + type + " holding " + raw);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + raw + " (" + type + (valid ? ")" : ", invalid)");
+    }
+
+}
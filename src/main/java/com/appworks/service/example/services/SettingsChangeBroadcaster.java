@@ -0,0 +1,316 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.util.NamedThreadFactory;
+import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
+import com.opentext.otag.service.context.components.AWComponent;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans the {@link SettingsChangeMessage}s the Gateway sends us out to clients holding a
+ * Server-Sent Events stream open, so they can stop polling our configuration.
+ * <p>
+ * An open stream costs us a suspended connection, not a thread. Each subscriber has its own
+ * queue of pending events drained by a small pool of writers, so publishing never waits on a
+ * client and a slow client only holds up itself. One that falls too far behind is disconnected,
+ * it can reconnect and pick up where it left off as the most recent events are kept for replay.
+ *
+ * @see com.appworks.service.example.api.ServiceSettingsResource
+ */
+public class SettingsChangeBroadcaster implements AWComponent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SettingsChangeBroadcaster.class);
+
+    public static final String CHANGE_EVENT = "setting";
+    /**
+     * Sent in place of a replay we can't give, the client should reload the configuration.
+     */
+    public static final String RESET_EVENT = "reset";
+
+    // event ids are only meaningful to this instance of the service
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final int replaySize;
+    private final int maxSubscribers;
+    private final int maxPending;
+    private final long heartbeatMillis;
+
+    // guarded by itself, appending to it and registering a subscriber are ordered by its lock
+    private final Deque<Event> replay = new ArrayDeque<>();
+    private long lastSeq;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeat =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("settings-stream-heartbeat"));
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public SettingsChangeBroadcaster() {
+        this(Integer.getInteger(ServiceConstants.STREAM_REPLAY_SIZE_PROPERTY,
+                ServiceConstants.DEFAULT_STREAM_REPLAY_SIZE),
+                Integer.getInteger(ServiceConstants.STREAM_MAX_SUBSCRIBERS_PROPERTY,
+                        ServiceConstants.DEFAULT_STREAM_MAX_SUBSCRIBERS),
+                Integer.getInteger(ServiceConstants.STREAM_MAX_PENDING_PROPERTY,
+                        ServiceConstants.DEFAULT_STREAM_MAX_PENDING),
+                Long.getLong(ServiceConstants.STREAM_HEARTBEAT_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_STREAM_HEARTBEAT_MS),
+                Integer.getInteger(ServiceConstants.STREAM_WRITERS_PROPERTY,
+                        ServiceConstants.DEFAULT_STREAM_WRITERS));
+    }
+
+    /**
+     * @param replaySize      recent events kept for reconnecting clients
+     * @param maxSubscribers  open streams we accept
+     * @param maxPending      events a subscriber may fall behind by before we disconnect it, at
+     *                        least twice the replay size
+     * @param heartbeatMillis how often an idle stream is written to, keeps proxies from closing it
+     * @param writers         threads writing events to the subscribers
+     */
+    public SettingsChangeBroadcaster(int replaySize, int maxSubscribers, int maxPending,
+                                     long heartbeatMillis, int writers) {
+        this.replaySize = replaySize;
+        this.maxSubscribers = maxSubscribers;
+        // room for a full replay on top of whatever is published while it is written
+        this.maxPending = Math.max(maxPending, replaySize * 2);
+        this.heartbeatMillis = heartbeatMillis;
+        this.writers = Executors.newFixedThreadPool(writers, new NamedThreadFactory("settings-stream"));
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatMillis, heartbeatMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open a stream of setting changes.
+     *
+     * @param lastEventId the id of the last event the client saw, from its {@code Last-Event-ID}
+     *                    header, null for a new client
+     * @return the stream, or empty if we have no room for another subscriber
+     */
+    public Optional<EventOutput> subscribe(String lastEventId) {
+        if (subscribers.size() >= maxSubscribers)
+            return Optional.empty();
+
+        Subscriber subscriber = new Subscriber(new EventOutput());
+        synchronized (replay) {
+            if (lastEventId != null)
+                replayTo(subscriber, lastEventId);
+            // registered under the lock, so nothing published is missed or sent twice
+            subscribers.add(subscriber);
+        }
+        return Optional.of(subscriber.output);
+    }
+
+    /**
+     * Send a change to every subscriber, returns without waiting on any of them.
+     *
+     * @param message the change message passed to us from the Gateway
+     */
+    public void publish(SettingsChangeMessage message) {
+        synchronized (replay) {
+            Event event = new Event(++lastSeq, new OutboundEvent.Builder()
+                    .id(epoch + "-" + lastSeq)
+                    .name(CHANGE_EVENT)
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(Map.class, change(message))
+                    .build());
+            replay.addLast(event);
+            if (replay.size() > replaySize)
+                replay.removeFirst();
+            subscribers.forEach(subscriber -> subscriber.offer(event.outbound));
+        }
+        published.increment();
+    }
+
+    public StreamStats getStats() {
+        return new StreamStats(subscribers.size(), published.sum(), dropped.sum());
+    }
+
+    /**
+     * Stop the writers and close every open stream.
+     */
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        writers.shutdownNow();
+        subscribers.forEach(Subscriber::close);
+    }
+
+    private void replayTo(Subscriber subscriber, String lastEventId) {
+        long seq = seqOf(lastEventId);
+        long oldest = replay.isEmpty() ? lastSeq + 1 : replay.peekFirst().seq;
+        if (seq < 0 || seq > lastSeq || seq < oldest - 1) {
+            // another instance's id, or the events since have already been dropped
+            subscriber.offer(new OutboundEvent.Builder()
+                    .name(RESET_EVENT)
+                    .data(String.class, "Reload the configuration, the changes since your last event are not held")
+                    .build());
+            return;
+        }
+
+        for (Event event : replay) {
+            if (event.seq > seq)
+                subscriber.offer(event.outbound);
+        }
+    }
+
+    /**
+     * @return the sequence number of one of our event ids, or -1 if it is not one of ours
+     */
+    private long seqOf(String eventId) {
+        int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !epoch.equals(eventId.substring(0, separator)))
+            return -1;
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The same key and value pair GET /api/configuration/{key} returns.
+     */
+    private static Map<String, String> change(SettingsChangeMessage message) {
+        Map<String, String> change = new LinkedHashMap<>(4);
+        change.put("key", message.getKey());
+        change.put("value", message.getNewValue());
+        return change;
+    }
+
+    private void sendHeartbeats() {
+        OutboundEvent ping = new OutboundEvent.Builder().comment("heartbeat").build();
+        subscribers.forEach(subscriber -> subscriber.offer(ping));
+    }
+
+    private static final class Event {
+
+        private final long seq;
+        private final OutboundEvent outbound;
+
+        private Event(long seq, OutboundEvent outbound) {
+            this.seq = seq;
+            this.outbound = outbound;
+        }
+
+    }
+
+    /**
+     * An open stream and the events waiting to be written to it, at most one writer
+     * drains it at a time so its events go out in order.
+     */
+    private final class Subscriber {
+
+        private final EventOutput output;
+        private final Queue<OutboundEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscriber(EventOutput output) {
+            this.output = output;
+        }
+
+        void offer(OutboundEvent event) {
+            if (closed.get())
+                return;
+            if (pendingCount.incrementAndGet() > maxPending) {
+                LOG.debug("Disconnecting a settings stream subscriber that fell {} events behind", maxPending);
+                dropped.increment();
+                close();
+                return;
+            }
+            pending.add(event);
+            if (draining.compareAndSet(false, true))
+                writers.execute(this::drain);
+        }
+
+        private void drain() {
+            do {
+                OutboundEvent event;
+                while ((event = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    try {
+                        output.write(event);
+                    } catch (IOException | RuntimeException e) {
+                        // the client has gone away
+                        close();
+                        return;
+                    }
+                }
+                draining.set(false);
+                // an event may have arrived after we emptied the queue but before we let go
+            } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true))
+                return;
+            subscribers.remove(this);
+            pending.clear();
+            try {
+                output.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close a settings stream", e);
+            }
+        }
+
+    }
+
+    /**
+     * Point in time view of our settings streams.
+     */
+    public static final class StreamStats {
+
+        private final int subscribers;
+        private final long published;
+        private final long dropped;
+
+        public StreamStats(int subscribers, long published, long dropped) {
+            this.subscribers = subscribers;
+            this.published = published;
+            this.dropped = dropped;
+        }
+
+        public int getSubscribers() {
+            return subscribers;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * @return subscribers we disconnected for falling behind
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+    }
+
+}
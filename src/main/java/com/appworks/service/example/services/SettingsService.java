@@ -4,50 +4,498 @@
 package com.appworks.service.example.services;
 
 import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.GatewayUnavailableException;
+import com.appworks.service.example.gateway.SettingsGateway;
+import com.appworks.service.example.util.NamedThreadFactory;
 import com.opentext.otag.sdk.client.v3.SettingsClient;
 import com.opentext.otag.sdk.types.v3.api.error.APIException;
+import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
 import com.opentext.otag.sdk.types.v3.settings.Setting;
-import com.opentext.otag.sdk.types.v3.settings.SettingType;
 import com.opentext.otag.service.context.components.AWComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * AppWorks component that adds this services {@link Setting}s to the Gateway
  * if they don't already exist. It can retrieve {@link Setting}s via their key too.
+ * <p>
+ * Retrieved {@link Setting}s are held in a local cache that is filled as we create our
+ * settings at bootstrap and kept current by the {@link SettingsChangeMessage}s the Gateway
+ * sends us (see {@link #onSettingChanged(SettingsChangeMessage)}). In case we ever miss a
+ * change message each entry also has a time to live, entries close to expiry are refreshed
+ * in the background on read and expired entries are re-fetched before they are returned.
+ * Concurrent loads of a key share one Gateway call, and keys the Gateway does not hold are
+ * remembered for a few seconds so a burst of requests for them does not reach the Gateway.
+ * <p>
+ * Given a {@link SettingsSnapshot} the cache is saved to a local file shortly after each change,
+ * and a restarted service can serve the saved values (flagged as such) while the Gateway is
+ * still being asked for current ones, see {@link #restoreSnapshot()}.
+ * <p>
+ * The {@link Setting} instances handed out are shared by all callers, treat them as read only
+ * and use {@link #updateSetting(String, String)} to change a value. Each value is also parsed
+ * for its type as it is cached, see {@link #getSettingValue(String)}.
  */
 public class SettingsService implements AWComponent {
 
     private static final Logger LOG = LoggerFactory.getLogger(SettingsService.class);
 
-    private final SettingsClient settingsClient;
+    private final SettingsGateway settingsGateway;
+    private final SettingsSnapshot snapshot;
+
+    // bounds the keys we remember the Gateway does not hold
+    private static final int NOT_FOUND_MAX_SIZE = 10000;
+
+    private final Map<String, CachedSetting> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedSetting>> loadsInFlight = new ConcurrentHashMap<>();
+    // keys the Gateway told us it does not hold, and until when we believe it
+    private final Map<String, Long> notFound = new ConcurrentHashMap<>();
+    private final Set<String> refreshesInFlight = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refresher =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("settings-refresh"));
+    // changes are written to the snapshot shortly after they happen, a burst of them in one go
+    private final ScheduledExecutorService snapshotWriter =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("settings-snapshot"));
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+    private final long snapshotDelayMillis = Long.getLong(ServiceConstants.SETTINGS_SNAPSHOT_WRITE_DELAY_MS_PROPERTY,
+            ServiceConstants.DEFAULT_SETTINGS_SNAPSHOT_WRITE_DELAY_MS);
+    // bounded, once the queue is full further fetches are refused rather than run by the caller
+    private final ThreadPoolExecutor fetcher = new ThreadPoolExecutor(
+            Integer.getInteger(ServiceConstants.SETTINGS_FETCH_THREADS_PROPERTY,
+                    ServiceConstants.DEFAULT_SETTINGS_FETCH_THREADS),
+            Integer.getInteger(ServiceConstants.SETTINGS_FETCH_THREADS_PROPERTY,
+                    ServiceConstants.DEFAULT_SETTINGS_FETCH_THREADS),
+            60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Integer.getInteger(ServiceConstants.SETTINGS_FETCH_QUEUE_PROPERTY,
+                    ServiceConstants.DEFAULT_SETTINGS_FETCH_QUEUE)),
+            new NamedThreadFactory("settings-fetch"),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final long notFoundTtlMillis = Long.getLong(ServiceConstants.SETTINGS_CACHE_NOT_FOUND_TTL_MS_PROPERTY,
+            ServiceConstants.DEFAULT_SETTINGS_CACHE_NOT_FOUND_TTL_MS);
+    private final int batchParallelism = Math.max(1, Integer.getInteger(
+            ServiceConstants.SETTINGS_BATCH_PARALLELISM_PROPERTY, ServiceConstants.DEFAULT_SETTINGS_BATCH_PARALLELISM));
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder changeUpdates = new LongAdder();
+    private final LongAdder fetchTimeouts = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder notFoundHits = new LongAdder();
+    private final LongAdder snapshotWrites = new LongAdder();
 
     public SettingsService(SettingsClient settingsClient) {
-        this.settingsClient = settingsClient;
+        this(SettingsGateway.of(settingsClient));
+    }
+
+    public SettingsService(SettingsGateway settingsGateway) {
+        this(settingsGateway, null);
     }
 
     /**
-     * Grab a Setting via its key.
+     * @param settingsGateway the Gateway settings calls
+     * @param snapshot        where we keep a local copy of our settings, null for none
+     */
+    public SettingsService(SettingsGateway settingsGateway, SettingsSnapshot snapshot) {
+        this(settingsGateway,
+                Long.getLong(ServiceConstants.SETTINGS_CACHE_TTL_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_SETTINGS_CACHE_TTL_MS),
+                Long.getLong(ServiceConstants.SETTINGS_CACHE_REFRESH_AHEAD_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_SETTINGS_CACHE_REFRESH_AHEAD_MS),
+                snapshot);
+    }
+
+    public SettingsService(SettingsGateway settingsGateway, long ttlMillis, long refreshAheadMillis) {
+        this(settingsGateway, ttlMillis, refreshAheadMillis, null);
+    }
+
+    public SettingsService(SettingsGateway settingsGateway, long ttlMillis, long refreshAheadMillis,
+                           SettingsSnapshot snapshot) {
+        this.settingsGateway = settingsGateway;
+        this.snapshot = snapshot;
+        this.ttlMillis = ttlMillis;
+        // refreshing ahead only makes sense before the entry expires
+        this.refreshAheadMillis = Math.min(refreshAheadMillis, ttlMillis);
+        fetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Grab a Setting via its key, from the local cache where possible.
      *
      * @param key Setting key
      * @return a Setting or null
      */
     public Optional<Setting> getSetting(String key) {
-        Setting setting;
-        try {
-            setting = settingsClient.getSetting(key);
-        } catch (APIException e) {
-            if (e.getStatus() == 404) {
-                LOG.debug("Setting not found for key {}", key);
+        return Optional.ofNullable(lookup(key)).map(cached -> cached.setting);
+    }
+
+    /**
+     * Grab the typed value of a Setting via its key, it was parsed as the Setting was loaded.
+     *
+     * @param key Setting key
+     * @return the Settings value, or empty if we don't hold the Setting
+     */
+    public Optional<SettingValue> getSettingValue(String key) {
+        return Optional.ofNullable(lookup(key)).map(cached -> cached.value);
+    }
+
+    /**
+     * Fill the cache from our local snapshot, so we can answer reads before the Gateway does.
+     * The restored Settings are flagged as such, see {@link SettingValue#isFromSnapshot()}, and
+     * each is refreshed from the Gateway in the background the first time it is read. Settings
+     * we already hold are left alone.
+     *
+     * @return the number of Settings restored
+     */
+    public int restoreSnapshot() {
+        if (snapshot == null)
+            return 0;
+
+        SettingsSnapshot.Snapshot restored = snapshot.load();
+        // old enough to be refreshed on first read, young enough to be served while that happens
+        long loadedAt = System.currentTimeMillis() - refreshAheadMillis;
+        int count = 0;
+        for (Setting setting : restored.getSettings()) {
+            if (cache.putIfAbsent(setting.getKey(), new CachedSetting(setting, true, loadedAt)) == null)
+                count++;
+        }
+        if (count > 0)
+            LOG.info("Restored {} settings from the snapshot saved at {}", count, new Date(restored.getSavedAt()));
+        return count;
+    }
+
+    private CachedSetting lookup(String key) {
+        CachedSetting cached = cache.get(key);
+        if (cached == null) {
+            misses.increment();
+            return load(key);
+        }
+
+        long age = System.currentTimeMillis() - cached.loadedAt;
+        if (age >= ttlMillis) {
+            // we may have missed a change message, ask the Gateway again but fall back
+            // to what we have if it cannot tell us
+            staleReads.increment();
+            CachedSetting reloaded = load(key);
+            return reloaded != null ? reloaded : cached.stale();
+        }
+
+        hits.increment();
+        if (age >= refreshAheadMillis)
+            refreshInBackground(key);
+
+        return cached;
+    }
+
+    /**
+     * Grab several Settings at once. Keys we hold a current value for are answered from the
+     * cache, the rest are fetched from the Gateway in parallel. A key that cannot be retrieved
+     * before the deadline does not hold up the others, if we still hold a value for it that
+     * value is returned flagged as stale (see {@link SettingValue#isStale()}), otherwise the
+     * key is left out.
+     *
+     * @param keys          Setting keys
+     * @param timeoutMillis how long we are prepared to wait for the Gateway
+     * @return the Settings we retrieved or still hold, in the order of the requested keys
+     */
+    public Map<String, Setting> getSettings(List<String> keys, long timeoutMillis) {
+        Map<String, Setting> settings = new LinkedHashMap<>(keys.size() * 2);
+        lookupAll(keys, timeoutMillis).forEach((key, cached) -> settings.put(key, cached.setting));
+        return settings;
+    }
+
+    /**
+     * Grab the typed values of several Settings at once, in the same way as
+     * {@link #getSettings(List, long)}.
+     *
+     * @param keys          Setting keys
+     * @param timeoutMillis how long we are prepared to wait for the Gateway
+     * @return the values we retrieved or still hold, in the order of the requested keys
+     */
+    public Map<String, SettingValue> getSettingValues(List<String> keys, long timeoutMillis) {
+        Map<String, SettingValue> values = new LinkedHashMap<>(keys.size() * 2);
+        lookupAll(keys, timeoutMillis).forEach((key, cached) -> values.put(key, cached.value));
+        return values;
+    }
+
+    private Map<String, CachedSetting> lookupAll(List<String> keys, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<String, CachedSetting> results = new LinkedHashMap<>(keys.size() * 2);
+        List<String> toFetch = new ArrayList<>(keys.size());
+        // what we held for each fetched key, served if the Gateway cannot answer in time
+        List<CachedSetting> fallbacks = new ArrayList<>(keys.size());
+        List<CompletableFuture<Optional<CachedSetting>>> fetches = new ArrayList<>(keys.size());
+
+        for (String key : keys) {
+            // reserve the slot so the result keeps the requested order
+            results.put(key, null);
+            CachedSetting cached = cache.get(key);
+            if (cached != null && System.currentTimeMillis() - cached.loadedAt < ttlMillis) {
+                results.put(key, lookup(key));
             } else {
-                LOG.error("We failed to find setting for key {} - {}", e.getCallInfo());
+                toFetch.add(key);
+                fallbacks.add(cached);
+                fetches.add(fetchAsync(() -> Optional.ofNullable(lookup(key))));
+            }
+        }
+
+        for (int i = 0; i < fetches.size(); i++) {
+            String key = toFetch.get(i);
+            CachedSetting fallback = fallbacks.get(i);
+            try {
+                long remaining = Math.max(0L, deadline - System.nanoTime());
+                fetches.get(i).get(remaining, TimeUnit.NANOSECONDS)
+                        .ifPresent(cached -> results.put(key, cached));
+            } catch (TimeoutException e) {
+                // the fetch carries on and will fill the cache for the next caller
+                fetchTimeouts.increment();
+                LOG.warn("Setting {} was not retrieved within {}ms, {}", key, timeoutMillis, fallbackTo(fallback));
+                serveStale(results, key, fallback);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    // no room to fetch it, the caller gets the same answer as if it had timed out
+                    fetchTimeouts.increment();
+                    LOG.warn("Setting {} was not retrieved, the fetch pool is full, {}", key, fallbackTo(fallback));
+                } else {
+                    LOG.error("Failed to retrieve setting for key {}", key, e.getCause());
+                }
+                serveStale(results, key, fallback);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
+        }
+
+        results.values().removeIf(cached -> cached == null);
+        return results;
+    }
+
+    private static void serveStale(Map<String, CachedSetting> results, String key, CachedSetting fallback) {
+        if (fallback != null)
+            results.put(key, fallback.stale());
+    }
+
+    private static String fallbackTo(CachedSetting fallback) {
+        return fallback != null ? "serving the value we hold" : "leaving it out";
+    }
+
+    /**
+     * Run a Gateway call on our fetch pool. The pool is bounded, a call it has no room for
+     * is not run at all, the returned future fails with a {@link RejectedExecutionException}.
+     */
+    private <T> CompletableFuture<T> fetchAsync(Supplier<T> fetch) {
+        try {
+            return CompletableFuture.supplyAsync(fetch, fetcher);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> refused = new CompletableFuture<>();
+            refused.completeExceptionally(e);
+            return refused;
+        }
+    }
+
+    /**
+     * Update the value of a Setting at the Gateway, the local cache is updated with the
+     * saved value.
+     *
+     * @param key   Setting key
+     * @param value the new value
+     * @return the updated Setting, or empty if no Setting exists for the key
+     * @throws APIException             if the SDK calls fail
+     * @throws IllegalArgumentException if the value does not parse for the Settings type
+     */
+    public Optional<Setting> updateSetting(String key, String value) throws APIException {
+        // fetch our own copy, the cached instance is shared with other readers
+        Setting setting = settingsGateway.getSetting(key);
+        if (setting == null) {
+            rememberNotFound(key);
             return Optional.empty();
         }
+        // refuse it now rather than have every read of it fail later
+        SettingValue.validate(setting.getType(), value);
+
+        setting.setValue(value);
+        // save the setting back to the store
+        settingsGateway.updateSetting(setting);
+        store(key, new CachedSetting(setting));
+
+        return Optional.of(setting);
+    }
+
+    /**
+     * Update the values of a number of Settings. Values that already match the Setting are
+     * left alone, the rest are saved at the Gateway a few at a time. A failed update does not
+     * stop the others, the outcome for each key is reported.
+     *
+     * @param values the new values by Setting key
+     * @return the outcome for each key, in the order of the given values
+     */
+    public List<UpdateResult> updateSettings(Map<String, String> values) {
+        Map<String, UpdateResult> results = new LinkedHashMap<>(values.size() * 2);
+        Queue<Map.Entry<String, String>> toUpdate = new ConcurrentLinkedQueue<>();
+
+        values.forEach((key, value) -> {
+            // reserve the slot so the result keeps the requested order
+            results.put(key, null);
+            CachedSetting cached = cache.get(key);
+            if (cached != null && System.currentTimeMillis() - cached.loadedAt < ttlMillis &&
+                    Objects.equals(cached.setting.getValue(), value)) {
+                results.put(key, new UpdateResult(key, UpdateResult.Outcome.UNCHANGED, value, null));
+            } else {
+                toUpdate.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            }
+        });
+
+        // a handful of workers drain the queue, so a large batch does not take over the fetch pool
+        Map<String, UpdateResult> updated = new ConcurrentHashMap<>();
+        int workers = Math.min(batchParallelism, toUpdate.size());
+        List<CompletableFuture<Void>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            running.add(fetchAsync(() -> {
+                Map.Entry<String, String> next;
+                while ((next = toUpdate.poll()) != null)
+                    updated.put(next.getKey(), applyUpdate(next.getKey(), next.getValue()));
+                return null;
+            }));
+        }
+        // a worker the fetch pool refused just fails, the others carry on
+        CompletableFuture.allOf(running.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        // anything left was never picked up, as none of our workers got into the pool
+        Map.Entry<String, String> refused;
+        while ((refused = toUpdate.poll()) != null) {
+            LOG.warn("Not updating setting {} - the fetch pool is full", refused.getKey());
+            updated.put(refused.getKey(), new UpdateResult(refused.getKey(), UpdateResult.Outcome.UNAVAILABLE,
+                    null, "The settings fetch pool is full"));
+        }
 
-        return setting == null ? Optional.empty() : Optional.of(setting);
+        results.putAll(updated);
+        return new ArrayList<>(results.values());
+    }
+
+    private UpdateResult applyUpdate(String key, String value) {
+        try {
+            // fetch our own copy, the cached instance is shared with other readers
+            Setting setting = settingsGateway.getSetting(key);
+            if (setting == null) {
+                rememberNotFound(key);
+                return new UpdateResult(key, UpdateResult.Outcome.NOT_FOUND, null, null);
+            }
+
+            if (Objects.equals(setting.getValue(), value)) {
+                store(key, new CachedSetting(setting));
+                return new UpdateResult(key, UpdateResult.Outcome.UNCHANGED, value, null);
+            }
+            SettingValue.validate(setting.getType(), value);
+
+            setting.setValue(value);
+            settingsGateway.updateSetting(setting);
+            store(key, new CachedSetting(setting));
+            return new UpdateResult(key, UpdateResult.Outcome.UPDATED, setting.getValue(), null);
+        } catch (GatewayUnavailableException e) {
+            LOG.warn("Not updating setting {} - {}", key, e.getMessage());
+            return new UpdateResult(key, UpdateResult.Outcome.UNAVAILABLE, null, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return new UpdateResult(key, UpdateResult.Outcome.INVALID, null, e.getMessage());
+        } catch (APIException e) {
+            LOG.error("Failed to update setting {} - SDK error - {}", key, e.getCallInfo(), e);
+            return new UpdateResult(key, UpdateResult.Outcome.FAILED, null, e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.error("Failed to update setting {}", key, e);
+            return new UpdateResult(key, UpdateResult.Outcome.FAILED, null, e.getMessage());
+        }
+    }
+
+    /**
+     * Apply the new value carried by a Gateway change message to the cached Setting, no
+     * call is made to the Gateway. The cached Setting is replaced by a copy holding the new
+     * value, never modified. The copy is provisional, the next read of the Setting from the
+     * Gateway replaces it.
+     *
+     * @param message the change message the Gateway sent us
+     */
+    public void onSettingChanged(SettingsChangeMessage message) {
+        String key = message.getKey();
+        CachedSetting changed = cache.computeIfPresent(key,
+                (k, cached) -> CachedSetting.provisional(changedCopy(cached.setting, message.getNewValue())));
+        if (changed == null) {
+            // nothing to update, the next read will load the current value
+            notFound.remove(key);
+            return;
+        }
+
+        snapshotChanged();
+        changeUpdates.increment();
+        LOG.debug("Updated cached setting {} from change message", key);
+    }
+
+    /**
+     * The message carries no sequence number, so the copy keeps the last one the Gateway
+     * gave us, we never make one up.
+     */
+    private static Setting changedCopy(Setting setting, String newValue) {
+        return new Setting(setting.getKey(), setting.getAppName(), setting.getType(), setting.getDisplayName(),
+                newValue, setting.getDefaultValue(), setting.getDescription(), setting.isReadOnly(),
+                setting.getSeqNo());
+    }
+
+    /**
+     * Drop a Setting from the local cache, the next read will go to the Gateway.
+     *
+     * @param key Setting key
+     */
+    public void invalidate(String key) {
+        cache.remove(key);
+        notFound.remove(key);
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public CacheStats getCacheStats() {
+        return new CacheStats(cache.size(), hits.sum(), misses.sum(), staleReads.sum(),
+                refreshes.sum(), changeUpdates.sum(), fetchTimeouts.sum(), coalesced.sum(), notFoundHits.sum(), snapshotWrites.sum());
+    }
+
+    /**
+     * Stop the background refresh and fetch workers.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+        fetcher.shutdownNow();
+        snapshotWriter.shutdownNow();
+        if (snapshot != null)
+            writeSnapshot();
     }
 
     /**
@@ -56,42 +504,470 @@ public class SettingsService implements AWComponent {
      * @param appName name of this service
      */
     public void createServiceSettings(String appName) {
-        createConfigSetting(appName, ServiceConstants.OUR_STRING_SETTING_KEY,
-                ServiceConstants.SETTING_TEXT, "A String Config", SettingType.string, "DEFAULT VALUE!!!");
-        createConfigSetting(appName, ServiceConstants.OUR_NUMBER_SETTING_KEY,
-                "999", "A Numeric Config", SettingType.integer, "0");
-        createConfigSetting(appName, ServiceConstants.OUR_BOOL_SETTING_KEY,
-                "true", "A Boolean Config", SettingType.bool, "false");
-        createConfigSetting(appName, ServiceConstants.OUR_JSON_SETTING_KEY,
-                ServiceConstants.SOME_JSON_CONTENT, "A JSON Config", SettingType.json, ServiceConstants.SOME_JSON_CONTENT);
+        ReconcileReport report = reconcileSettings(appName, SettingDefinition.SERVICE_SETTINGS);
+        LOG.info(report.toString());
     }
 
     /**
-     * Create a configuration setting via the SDK.
+     * Make sure the Gateway holds a Setting for every definition. All of the keys are looked
+     * up at once, then the missing Settings are created at once. Every Setting found or
+     * created ends up in our cache.
      *
-     * @param appName      the name of this service, ensures we associate the setting with the correct service
-     * @param key          setting key (id)
-     * @param value        the setting value
-     * @param label        the setting label
-     * @param type         setting type
-     * @param defaultValue default value
-     */
-    private void createConfigSetting(String appName, String key, String value, String label, SettingType type, String defaultValue) {
-        Optional<Setting> retrieved = getSetting(key);
-        if (!retrieved.isPresent()) {
-            // construct a new setting
-            Setting ourSetting = new Setting(key, appName, type, label,
-                    value, defaultValue, label, false /* readOnly  */, null /* seqNo */);
+     * @param appName     the name of this service, ensures we associate the settings with the correct service
+     * @param definitions the settings we need
+     * @return what was found, created and could not be checked or created
+     */
+    public ReconcileReport reconcileSettings(String appName, List<SettingDefinition> definitions) {
+        long start = System.nanoTime();
+
+        // look everything up in one pass
+        Map<SettingDefinition, CompletableFuture<Setting>> lookups = new LinkedHashMap<>();
+        definitions.forEach(definition -> lookups.put(definition, fetchAsync(() -> {
+            try {
+                return settingsGateway.getSetting(definition.getKey());
+            } catch (APIException e) {
+                if (e.getStatus() == 404)
+                    return null;
+                throw new IllegalStateException(e.getCallInfo(), e);
+            }
+        })));
+
+        List<String> existing = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<SettingDefinition> missing = new ArrayList<>();
+        lookups.forEach((definition, lookup) -> {
+            try {
+                Setting setting = lookup.join();
+                if (setting != null) {
+                    store(definition.getKey(), new CachedSetting(setting));
+                    existing.add(definition.getKey());
+                } else {
+                    missing.add(definition);
+                }
+            } catch (CompletionException e) {
+                // we can't tell if it exists, so leave it alone
+                LOG.error("We failed to find setting for key {} - {}", definition.getKey(),
+                        e.getCause().getMessage());
+                failed.add(definition.getKey());
+            }
+        });
 
+        // then create whatever is missing
+        Map<SettingDefinition, CompletableFuture<Setting>> creations = new LinkedHashMap<>();
+        missing.forEach(definition -> creations.put(definition, fetchAsync(() -> {
+            Setting ourSetting = definition.toSetting(appName);
             LOG.info(String.format("Creating new Setting - %s", ourSetting));
             try {
-                settingsClient.createSetting(ourSetting);
+                settingsGateway.createSetting(ourSetting);
+                return ourSetting;
             } catch (APIException e) {
-                LOG.error("We failed to create setting for key {} - {}", key, e.getCallInfo());
+                throw new IllegalStateException(e.getCallInfo(), e);
+            }
+        })));
+
+        List<String> created = new ArrayList<>();
+        creations.forEach((definition, creation) -> {
+            try {
+                store(definition.getKey(), new CachedSetting(creation.join()));
+                created.add(definition.getKey());
+            } catch (CompletionException e) {
+                LOG.error("We failed to create setting for key {} - {}", definition.getKey(),
+                        e.getCause().getMessage());
+                failed.add(definition.getKey());
             }
-        } else {
-            LOG.info(String.format("Setting already existed we wont add it again - %s", retrieved.get()));
+        });
+
+        return new ReconcileReport(existing, created, failed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Load a Setting from the Gateway. Concurrent loads of the same key share a single
+     * Gateway call, and a key the Gateway does not know is not asked about again until its
+     * not found entry expires.
+     *
+     * @param key Setting key
+     * @return the loaded entry, or null if the Setting could not be loaded
+     */
+    private CachedSetting load(String key) {
+        Long notFoundUntil = notFound.get(key);
+        if (notFoundUntil != null) {
+            if (System.currentTimeMillis() < notFoundUntil) {
+                notFoundHits.increment();
+                return null;
+            }
+            notFound.remove(key, notFoundUntil);
+        }
+
+        CompletableFuture<CachedSetting> created = new CompletableFuture<>();
+        CompletableFuture<CachedSetting> loading = loadsInFlight.putIfAbsent(key, created);
+        if (loading != null) {
+            // another caller is already asking the Gateway, wait for its answer
+            coalesced.increment();
+            return loading.join();
+        }
+
+        try {
+            CachedSetting loaded = fetch(key);
+            created.complete(loaded);
+            return loaded;
+        } catch (RuntimeException e) {
+            created.complete(null);
+            throw e;
+        } finally {
+            loadsInFlight.remove(key, created);
+        }
+    }
+
+    private CachedSetting fetch(String key) {
+        long readStartedAt = System.currentTimeMillis();
+        Setting setting;
+        try {
+            setting = settingsGateway.getSetting(key);
+        } catch (APIException e) {
+            if (e.getStatus() == 404) {
+                LOG.debug("Setting not found for key {}", key);
+                rememberNotFound(key);
+            } else {
+                LOG.error("We failed to find setting for key {} - {}", key, e.getCallInfo());
+            }
+            return null;
+        } catch (RuntimeException e) {
+            // e.g. the Gateway could not be reached or our guard refused the call,
+            // the caller falls back to the last value we held
+            LOG.warn("We failed to find setting for key {} - {}", key, e.getMessage());
+            return null;
+        }
+
+        if (setting == null) {
+            rememberNotFound(key);
+            return null;
+        }
+
+        return store(key, new CachedSetting(setting), readStartedAt);
+    }
+
+    private void store(String key, CachedSetting entry) {
+        store(key, entry, entry.loadedAt);
+    }
+
+    /**
+     * Cache an entry read from the Gateway, unless we already hold a later version of the
+     * Setting. A provisional entry from a change message is replaced, unless the read began
+     * before the change arrived and so may carry the old value. When we keep what we hold,
+     * the Gateway has just confirmed it, so it is current again.
+     *
+     * @param readStartedAt when we began reading the entry from the Gateway
+     * @return the entry we now hold
+     */
+    private CachedSetting store(String key, CachedSetting entry, long readStartedAt) {
+        CachedSetting stored = cache.compute(key, (k, current) -> {
+            if (current == null)
+                return entry;
+            if (current.provisional)
+                return readStartedAt < current.loadedAt && !entry.isNewerThan(current) ? current : entry;
+            return current.isNewerThan(entry) ? current.renewed() : entry;
+        });
+        if (stored == entry)
+            snapshotChanged();
+        return stored;
+    }
+
+    private void snapshotChanged() {
+        if (snapshot == null || !snapshotPending.compareAndSet(false, true))
+            return;
+        try {
+            snapshotWriter.schedule(this::writeSnapshot, snapshotDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // rejected as we are shutting down, shutdown writes the final snapshot
+            snapshotPending.set(false);
         }
     }
 
-}
\ No newline at end of file
+    private void writeSnapshot() {
+        // let later changes schedule another write before we take our copy
+        snapshotPending.set(false);
+        List<Setting> settings = new ArrayList<>(cache.size());
+        cache.values().forEach(cached -> settings.add(cached.setting));
+        try {
+            snapshot.save(settings);
+            snapshotWrites.increment();
+        } catch (IOException e) {
+            LOG.warn("Failed to save the settings snapshot - {}", e.getMessage());
+        }
+    }
+
+    private void rememberNotFound(String key) {
+        if (cache.remove(key) != null)
+            snapshotChanged();
+        if (notFoundTtlMillis <= 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        if (notFound.size() >= NOT_FOUND_MAX_SIZE) {
+            // clients can ask for any key, don't let unknown keys grow without bound
+            notFound.values().removeIf(until -> until <= now);
+            if (notFound.size() >= NOT_FOUND_MAX_SIZE)
+                notFound.clear();
+        }
+        notFound.put(key, now + notFoundTtlMillis);
+    }
+
+    private void refreshInBackground(String key) {
+        // only one refresh per key at a time
+        if (!refreshesInFlight.add(key))
+            return;
+
+        try {
+            refresher.execute(() -> {
+                try {
+                    refreshes.increment();
+                    load(key);
+                } finally {
+                    refreshesInFlight.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected as we are shutting down, the next read will retry
+            refreshesInFlight.remove(key);
+        }
+    }
+
+    private static final class CachedSetting {
+
+        private final Setting setting;
+        // parsed once here, the Setting is re-wrapped whenever its value changes
+        private final SettingValue value;
+        private final long loadedAt;
+        // applied from a change message rather than read from the Gateway
+        private final boolean provisional;
+
+        private CachedSetting(Setting setting) {
+            this(setting, false, System.currentTimeMillis(), false);
+        }
+
+        private CachedSetting(Setting setting, boolean fromSnapshot, long loadedAt) {
+            this(setting, fromSnapshot, loadedAt, false);
+        }
+
+        private CachedSetting(Setting setting, boolean fromSnapshot, long loadedAt, boolean provisional) {
+            this(setting, SettingValue.of(setting, fromSnapshot), loadedAt, provisional);
+        }
+
+        private CachedSetting(Setting setting, SettingValue value, long loadedAt, boolean provisional) {
+            this.setting = setting;
+            this.value = value;
+            this.loadedAt = loadedAt;
+            this.provisional = provisional;
+        }
+
+        private static CachedSetting provisional(Setting setting) {
+            return new CachedSetting(setting, false, System.currentTimeMillis(), true);
+        }
+
+        private CachedSetting renewed() {
+            return new CachedSetting(setting);
+        }
+
+        // handed to callers only, never stored
+        private CachedSetting stale() {
+            return new CachedSetting(setting, value.stale(), loadedAt, provisional);
+        }
+
+        private boolean isNewerThan(CachedSetting other) {
+            Long seqNo = setting.getSeqNo();
+            Long otherSeqNo = other.setting.getSeqNo();
+            return seqNo != null && otherSeqNo != null && seqNo > otherSeqNo;
+        }
+
+    }
+
+    /**
+     * Point in time view of the settings cache counters.
+     */
+    public static final class CacheStats {
+
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long staleReads;
+        private final long refreshes;
+        private final long changeUpdates;
+        private final long fetchTimeouts;
+        private final long coalesced;
+        private final long notFoundHits;
+        private final long snapshotWrites;
+
+        public CacheStats(int size, long hits, long misses, long staleReads,
+                          long refreshes, long changeUpdates, long fetchTimeouts,
+                          long coalesced, long notFoundHits, long snapshotWrites) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.staleReads = staleReads;
+            this.refreshes = refreshes;
+            this.changeUpdates = changeUpdates;
+            this.fetchTimeouts = fetchTimeouts;
+            this.coalesced = coalesced;
+            this.notFoundHits = notFoundHits;
+            this.snapshotWrites = snapshotWrites;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getStaleReads() {
+            return staleReads;
+        }
+
+        public long getRefreshes() {
+            return refreshes;
+        }
+
+        public long getChangeUpdates() {
+            return changeUpdates;
+        }
+
+        /**
+         * @return keys of a multi-key read whose fetch timed out or found the fetch pool full, they
+         * were served stale if we held a value and left out otherwise
+         */
+        public long getFetchTimeouts() {
+            return fetchTimeouts;
+        }
+
+        /**
+         * @return loads that waited on a Gateway call another caller had already made
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * @return loads answered from our record of keys the Gateway does not hold
+         */
+        public long getNotFoundHits() {
+            return notFoundHits;
+        }
+
+        public long getSnapshotWrites() {
+            return snapshotWrites;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{size=" + size + ", hits=" + hits + ", misses=" + misses +
+                    ", staleReads=" + staleReads + ", refreshes=" + refreshes +
+                    ", changeUpdates=" + changeUpdates + ", fetchTimeouts=" + fetchTimeouts +
+                    ", coalesced=" + coalesced + ", notFoundHits=" + notFoundHits +
+                    ", snapshotWrites=" + snapshotWrites + "}";
+        }
+
+    }
+
+    /**
+     * What became of one Setting of a batch update.
+     */
+    public static final class UpdateResult {
+
+        public enum Outcome {
+            UPDATED, UNCHANGED, NOT_FOUND, INVALID, UNAVAILABLE, FAILED
+        }
+
+        private final String key;
+        private final Outcome outcome;
+        private final String value;
+        private final String error;
+
+        public UpdateResult(String key, Outcome outcome, String value, String error) {
+            this.key = key;
+            this.outcome = outcome;
+            this.value = value;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the Settings value after the update, null unless it was updated or unchanged
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return why the update failed, null if it did not
+         */
+        public String getError() {
+            return error;
+        }
+
+    }
+
+    /**
+     * The outcome of {@link #reconcileSettings(String, List)}.
+     */
+    public static final class ReconcileReport {
+
+        private final List<String> existing;
+        private final List<String> created;
+        private final List<String> failed;
+        private final long durationMillis;
+
+        public ReconcileReport(List<String> existing, List<String> created, List<String> failed,
+                               long durationMillis) {
+            this.existing = Collections.unmodifiableList(existing);
+            this.created = Collections.unmodifiableList(created);
+            this.failed = Collections.unmodifiableList(failed);
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * @return keys of the settings the Gateway already held
+         */
+        public List<String> getExisting() {
+            return existing;
+        }
+
+        /**
+         * @return keys of the settings we created
+         */
+        public List<String> getCreated() {
+            return created;
+        }
+
+        /**
+         * @return keys of the settings we could not check or create
+         */
+        public List<String> getFailed() {
+            return failed;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Settings reconciled in " + durationMillis + "ms, existing=" + existing +
+                    ", created=" + created + ", failed=" + failed;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.sdk.types.v3.settings.SettingType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A local copy of the Settings we last knew, so a restarted service can answer reads before
+ * the Gateway does. The whole snapshot is rewritten on each save, to a temporary file that
+ * then replaces the old one, so a crash mid-write leaves the previous snapshot intact.
+ * <p>
+ * The file is a small binary format, a header carrying a version and the time it was saved,
+ * the Settings, then a CRC32 of everything before it. A snapshot we can't read in full, or
+ * that was written by another version, is ignored.
+ */
+public class SettingsSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SettingsSnapshot.class);
+
+    private static final String SNAPSHOT_FILE = "settings.snapshot";
+
+    // "AWSS"
+    private static final int MAGIC = 0x41575353;
+    private static final int VERSION = 1;
+
+    private static final byte NULL = -1;
+
+    private final Path snapshotPath;
+
+    public SettingsSnapshot(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.snapshotPath = directory.toPath().resolve(SNAPSHOT_FILE);
+    }
+
+    /**
+     * Replace the snapshot with the given Settings.
+     *
+     * @param settings the Settings we currently hold
+     * @throws IOException if the snapshot could not be written, the previous one is left in place
+     */
+    public void save(Collection<Setting> settings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + settings.size() * 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(settings.size());
+        for (Setting setting : settings) {
+            writeString(out, setting.getKey());
+            writeString(out, setting.getAppName());
+            writeString(out, setting.getType() == null ? null : setting.getType().name());
+            writeString(out, setting.getDisplayName());
+            writeString(out, setting.getValue());
+            writeString(out, setting.getDefaultValue());
+            writeString(out, setting.getDescription());
+            out.writeByte(setting.isReadOnly() == null ? NULL : setting.isReadOnly() ? 1 : 0);
+            out.writeBoolean(setting.getSeqNo() != null);
+            out.writeLong(setting.getSeqNo() == null ? 0L : setting.getSeqNo());
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path tmp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the snapshot, the file is mapped rather than copied onto the heap.
+     *
+     * @return the Settings in the snapshot, empty if there is none or it can't be read
+     */
+    public Snapshot load() {
+        if (!Files.exists(snapshotPath))
+            return Snapshot.EMPTY;
+
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring the settings snapshot {}, we could not read it - {}", snapshotPath, e.toString());
+            return Snapshot.EMPTY;
+        }
+    }
+
+    private Snapshot read(ByteBuffer buffer) {
+        int bodyLength = buffer.limit() - Long.BYTES;
+        if (bodyLength < 0 || buffer.getInt() != MAGIC)
+            throw new IllegalStateException("not a settings snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IllegalStateException("snapshot version " + version + " is not " + VERSION);
+
+        // check the whole thing before we trust any of it
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(0).limit(bodyLength);
+        crc.update(body);
+        if (crc.getValue() != buffer.getLong(bodyLength))
+            throw new IllegalStateException("checksum mismatch");
+
+        try {
+            long savedAt = buffer.getLong();
+            int count = buffer.getInt();
+            List<Setting> settings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                String appName = readString(buffer);
+                String type = readString(buffer);
+                String displayName = readString(buffer);
+                String value = readString(buffer);
+                String defaultValue = readString(buffer);
+                String description = readString(buffer);
+                byte readOnly = buffer.get();
+                boolean hasSeqNo = buffer.get() != 0;
+                long seqNo = buffer.getLong();
+                settings.add(new Setting(key, appName, type == null ? null : SettingType.valueOf(type),
+                        displayName, value, defaultValue, description,
+                        readOnly == NULL ? null : readOnly == 1, hasSeqNo ? seqNo : null));
+            }
+            return new Snapshot(settings, savedAt);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("truncated snapshot");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The Settings a snapshot held and when it was saved.
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyList(), 0L);
+
+        private final List<Setting> settings;
+        private final long savedAt;
+
+        Snapshot(List<Setting> settings, long savedAt) {
+            this.settings = Collections.unmodifiableList(settings);
+            this.savedAt = savedAt;
+        }
+
+        public List<Setting> getSettings() {
+            return settings;
+        }
+
+        public long getSavedAt() {
+            return savedAt;
+        }
+
+    }
+
+}
@@ -3,6 +3,10 @@
  */
 package com.appworks.service.example.services;
 
+import com.appworks.service.example.ServiceConstants;
+import com.appworks.service.example.gateway.GatewayUnavailableException;
+import com.appworks.service.example.gateway.TrustedProviderGateway;
+import com.appworks.service.example.util.NamedThreadFactory;
 import com.opentext.otag.sdk.client.v3.TrustedProviderClient;
 import com.opentext.otag.sdk.types.v3.TrustedProvider;
 import com.opentext.otag.sdk.types.v3.TrustedProviders;
@@ -11,7 +15,19 @@ import com.opentext.otag.service.context.components.AWComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Some AppWorks services interact with a EIM backend that is considered trusted.
@@ -19,6 +35,10 @@ import java.util.List;
  * Gateway API's using their key.
  * <p>
  * The SDK offers a client that allows the creation and retrieval of such trusted providers.
+ * We list them once and then refresh the listing in the background, everyone else looks
+ * providers up by name or key in the current immutable {@link Snapshot} without calling the
+ * Gateway. The providers we need are reconciled against the listing in a single pass, only
+ * those that are missing are created.
  */
 public class TrustedProviderService implements AWComponent {
 
@@ -26,62 +46,299 @@ public class TrustedProviderService implements AWComponent {
 
     private static final String TRUSTED_PROVIDER_NAME = "ImaginaryProvider";
 
-    private TrustedProviderClient trustedProviderClient;
+    private final TrustedProviderGateway trustedProviderGateway;
+    private final Set<String> requiredProviders;
+    private final long refreshIntervalMillis;
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("trusted-providers-refresh"));
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     public TrustedProviderService(TrustedProviderClient trustedProviderClient) {
-        this.trustedProviderClient = trustedProviderClient;
-        validateMyServiceTrustedProvider();
+        this(TrustedProviderGateway.of(trustedProviderClient));
+    }
+
+    public TrustedProviderService(TrustedProviderGateway trustedProviderGateway) {
+        this(trustedProviderGateway,
+                parseNames(System.getProperty(ServiceConstants.TRUSTED_PROVIDERS_REQUIRED_PROPERTY,
+                        TRUSTED_PROVIDER_NAME)),
+                Long.getLong(ServiceConstants.TRUSTED_PROVIDERS_REFRESH_INTERVAL_MS_PROPERTY,
+                        ServiceConstants.DEFAULT_TRUSTED_PROVIDERS_REFRESH_INTERVAL_MS));
+    }
+
+    /**
+     * @param trustedProviderGateway the Gateway calls
+     * @param requiredProviders      names of the providers we make sure exist
+     * @param refreshIntervalMillis  how often the listing is refreshed, and the required
+     *                               providers checked again, once {@link #start()} is called
+     * @throws RuntimeException if the Gateway would not create one of the required providers
+     */
+    public TrustedProviderService(TrustedProviderGateway trustedProviderGateway,
+                                  Collection<String> requiredProviders, long refreshIntervalMillis) {
+        this.trustedProviderGateway = trustedProviderGateway;
+        this.requiredProviders = Collections.unmodifiableSet(new LinkedHashSet<>(requiredProviders));
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        validateMyServiceTrustedProviders();
+    }
+
+    /**
+     * Start refreshing the listing in the background at the configured interval. If we have
+     * never managed to list the providers the first refresh runs straight away.
+     */
+    public void start() {
+        long initialDelayMillis = snapshot.getVersion() == 0 ? 0L : refreshIntervalMillis;
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly,
+                initialDelayMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Get the current snapshot, without calling the Gateway. Until the providers have been
+     * listed this is an empty snapshot at version 0, the background refresh fills it in.
+     *
+     * @return the current snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
-     * Get or create a {@link TrustedProvider} via the AppWorks SDK client.
+     * Look up the key of a trusted provider, without calling the Gateway.
+     *
+     * @param name provider name
+     * @return its key, empty if we don't know of such a provider
      */
-    private void validateMyServiceTrustedProvider() {
-        boolean providerExists = doesProviderExist();
+    public Optional<String> getProviderKey(String name) {
+        return getSnapshot().getProvider(name).map(TrustedProvider::getKey);
+    }
 
+    /**
+     * Fetch the providers from the Gateway and publish them as a new snapshot.
+     *
+     * @return the new snapshot
+     * @throws APIException if the Gateway call failed, the current snapshot is kept
+     */
+    public synchronized Snapshot refresh() throws APIException {
+        TrustedProviders allProviders = trustedProviderGateway.getAllProviders();
+        List<TrustedProvider> providers = allProviders.getTrustedProviders();
+        return publish(providers != null ? providers : Collections.emptyList());
+    }
+
+    /**
+     * Make sure each of the named providers exists, creating those that don't. The providers
+     * are listed once, and only the missing ones cost a Gateway call each. If the listing
+     * fails we ask the Gateway to get or create every one of them.
+     *
+     * @param names provider names
+     * @return what we found, created or could not create
+     */
+    public synchronized ReconcileResult reconcile(Collection<String> names) {
+        Snapshot current;
         try {
-            if (!providerExists) {
-                TrustedProvider created = trustedProviderClient.getOrCreate(TRUSTED_PROVIDER_NAME);
-                if (created != null) {
-                    LOG.info("The MyService related trusted provider was created");
+            current = refresh();
+        } catch (APIException e) {
+            LOG.error("Trusted provider listing failed - {}", e.getCallInfo());
+            current = snapshot;
+        } catch (GatewayUnavailableException e) {
+            LOG.warn("Trusted provider listing failed - {}", e.getMessage());
+            current = snapshot;
+        }
+
+        List<String> existing = new ArrayList<>();
+        List<TrustedProvider> created = new ArrayList<>();
+        List<String> createdNames = new ArrayList<>();
+        List<String> notCreated = new ArrayList<>();
+        List<String> unavailable = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(names)) {
+            if (current.getProvider(name).isPresent()) {
+                existing.add(name);
+                continue;
+            }
+
+            try {
+                TrustedProvider provider = trustedProviderGateway.getOrCreate(name);
+                if (provider != null) {
+                    created.add(provider);
+                    createdNames.add(name);
                 } else {
-                    throw new RuntimeException("Failed to create the MyService related trusted provider");
+                    notCreated.add(name);
                 }
-            } else {
-                LOG.info("The MyService related trusted provider already exists, no further action required");
+            } catch (APIException e) {
+                LOG.error("Trusted provider creation failed for {} - {}", name, e.getCallInfo());
+                unavailable.add(name);
+            } catch (GatewayUnavailableException e) {
+                LOG.warn("Trusted provider creation failed for {} - {}", name, e.getMessage());
+                unavailable.add(name);
             }
-        } catch (APIException e) {
-            String errMsg = String.format(
-                    "Trusted provider calls via SDK client failed - %s", e.getCallInfo());
-            LOG.info(errMsg, e);
         }
 
+        if (!created.isEmpty()) {
+            List<TrustedProvider> providers = new ArrayList<>(current.getProvidersByName().values());
+            providers.addAll(created);
+            publish(providers);
+        }
+
+        return new ReconcileResult(existing, createdNames, notCreated, unavailable);
     }
 
     /**
-     * Use the SDK client to lookup the available trusted providers.
-     *
-     * @return true if the provider existed, false otherwise
+     * Reconcile our own providers, a provider the Gateway refuses to create fails our startup.
      */
-    private boolean doesProviderExist() {
-        boolean providerExists = false;
+    private void validateMyServiceTrustedProviders() {
+        ReconcileResult result = reconcile(requiredProviders);
+        if (!result.getNotCreated().isEmpty())
+            throw new RuntimeException("Failed to create the MyService related trusted providers " +
+                    result.getNotCreated());
+
+        if (!result.getCreated().isEmpty())
+            LOG.info("The MyService related trusted providers {} were created", result.getCreated());
+        if (!result.getExisting().isEmpty())
+            LOG.info("The MyService related trusted providers {} already exist, no further action required",
+                    result.getExisting());
+        // the background refresh tries these again
+        if (!result.getUnavailable().isEmpty())
+            LOG.info("Unable to check the MyService related trusted providers {} yet", result.getUnavailable());
+    }
 
+    private void reconcileQuietly() {
         try {
-            TrustedProviders allProviders = trustedProviderClient.getAllProviders();
-            List<TrustedProvider> trustedProviders = allProviders.getTrustedProviders();
+            ReconcileResult result = reconcile(requiredProviders);
+            if (!result.getCreated().isEmpty())
+                LOG.warn("The MyService related trusted providers {} had gone, they were created again",
+                        result.getCreated());
+        } catch (RuntimeException e) {
+            // don't let a failure cancel the scheduled refresh
+            LOG.error("Trusted provider refresh failed", e);
+        }
+    }
+
+    private Snapshot publish(List<TrustedProvider> providers) {
+        Map<String, TrustedProvider> byName = new LinkedHashMap<>();
+        Map<String, TrustedProvider> byKey = new HashMap<>();
+        for (TrustedProvider provider : providers) {
+            byName.put(provider.getName(), provider);
+            if (provider.getKey() != null)
+                byKey.put(provider.getKey(), provider);
+        }
 
-            if (trustedProviders != null)
-                providerExists = trustedProviders.stream()
-                        .anyMatch(trustedProvider ->
-                                TRUSTED_PROVIDER_NAME.equals(trustedProvider.getName()));
+        Snapshot refreshed = new Snapshot(snapshot.getVersion() + 1, System.currentTimeMillis(), byName, byKey);
+        snapshot = refreshed;
+        LOG.debug("Trusted provider snapshot {} holds {} providers", refreshed.getVersion(), byName.size());
+        return refreshed;
+    }
 
-        } catch (APIException e) {
-            String errMsg = String.format(
-                    "Failed to lookup trusted provider via SDK client - %s", e.getCallInfo());
-            LOG.info(errMsg, e);
+    private static List<String> parseNames(String names) {
+        List<String> parsed = new ArrayList<>();
+        for (String name : names.split(",")) {
+            if (!name.trim().isEmpty())
+                parsed.add(name.trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Immutable view of the trusted providers at a point in time, indexed by name and by key.
+     */
+    public static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(0, 0, Collections.emptyMap(), Collections.emptyMap());
+
+        private final long version;
+        private final long fetchedAt;
+        private final Map<String, TrustedProvider> providersByName;
+        private final Map<String, TrustedProvider> providersByKey;
+
+        private Snapshot(long version, long fetchedAt, Map<String, TrustedProvider> providersByName,
+                         Map<String, TrustedProvider> providersByKey) {
+            this.version = version;
+            this.fetchedAt = fetchedAt;
+            this.providersByName = Collections.unmodifiableMap(providersByName);
+            this.providersByKey = Collections.unmodifiableMap(providersByKey);
+        }
+
+        /**
+         * @return increases by one with every change we publish, 0 if we never listed the providers
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public Set<String> getNames() {
+            return providersByName.keySet();
+        }
+
+        public Optional<TrustedProvider> getProvider(String name) {
+            return Optional.ofNullable(providersByName.get(name));
+        }
+
+        /**
+         * @param key a provider key, as presented to us by a trusted backend
+         * @return the provider it belongs to, empty if it is not one we know of
+         */
+        public Optional<TrustedProvider> getProviderByKey(String key) {
+            return key == null ? Optional.empty() : Optional.ofNullable(providersByKey.get(key));
+        }
+
+        public Map<String, TrustedProvider> getProvidersByName() {
+            return providersByName;
+        }
+
+    }
+
+    /**
+     * The outcome of reconciling a set of providers with those the Gateway holds.
+     */
+    public static final class ReconcileResult {
+
+        private final List<String> existing;
+        private final List<String> created;
+        private final List<String> notCreated;
+        private final List<String> unavailable;
+
+        public ReconcileResult(List<String> existing, List<String> created, List<String> notCreated,
+                               List<String> unavailable) {
+            this.existing = Collections.unmodifiableList(existing);
+            this.created = Collections.unmodifiableList(created);
+            this.notCreated = Collections.unmodifiableList(notCreated);
+            this.unavailable = Collections.unmodifiableList(unavailable);
+        }
+
+        /**
+         * @return providers that already existed
+         */
+        public List<String> getExisting() {
+            return existing;
+        }
+
+        public List<String> getCreated() {
+            return created;
+        }
+
+        /**
+         * @return providers the Gateway would not create
+         */
+        public List<String> getNotCreated() {
+            return notCreated;
+        }
+
+        /**
+         * @return providers we could not check, as the Gateway call failed
+         */
+        public List<String> getUnavailable() {
+            return unavailable;
         }
 
-        return providerExists;
     }
 
 }
@@ -0,0 +1,186 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops calling a dependency that keeps failing. After {@code failureThreshold} consecutive
+ * failures (slow calls count as failures) the breaker opens and calls are refused without
+ * being made. Once {@code openMillis} has passed a single trial call is let through, its
+ * outcome closes the breaker again or keeps it open for another period. A trial that has not
+ * reported back within {@code openMillis} counts as failed.
+ * <p>
+ * Every permitted call is given a {@link Permit} to report its outcome with. Only the trial's
+ * permit moves the breaker out of {@link State#HALF_OPEN}, so a call started before the
+ * breaker opened can't close or reopen it when it finally returns.
+ * <p>
+ * The breaker is lock-free, a call that is let through costs a volatile read.
+ */
+public class CircuitBreaker {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    /**
+     * Proof that a call was permitted, handed back with its outcome.
+     */
+    public static final class Permit {
+
+        private Permit() {
+        }
+
+    }
+
+    // shared by all the calls made while the breaker is closed
+    private static final Permit CALL = new Permit();
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long slowCallNanos;
+
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timesOpened = new LongAdder();
+
+    /**
+     * @param name             what the breaker protects, for logging
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openMillis       how long the breaker stays open before a trial call, and how
+     *                         long the trial call may take to report back
+     * @param slowCallMillis   calls that take at least this long count as failures
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, long slowCallMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+    }
+
+    /**
+     * Ask to make a call, a permitted call must report its outcome via
+     * {@link #onSuccess(Permit, long)} or {@link #onFailure(Permit)}.
+     *
+     * @return the permit for the call, null if the call may not be made
+     */
+    public Permit tryAcquire() {
+        Status current = current();
+        if (current.state == State.CLOSED)
+            return CALL;
+
+        if (current.state == State.OPEN && System.currentTimeMillis() - current.since >= openMillis) {
+            Status trial = new Status(State.HALF_OPEN, System.currentTimeMillis(), new Permit());
+            // we won the trial call
+            if (status.compareAndSet(current, trial))
+                return trial.trial;
+        }
+
+        rejected.increment();
+        return null;
+    }
+
+    /**
+     * @param permit       the permit the call was made with
+     * @param elapsedNanos how long the call took
+     */
+    public void onSuccess(Permit permit, long elapsedNanos) {
+        if (elapsedNanos >= slowCallNanos) {
+            onFailure(permit);
+            return;
+        }
+
+        consecutiveFailures.set(0);
+        // a late success from before the breaker opened does not close it, only the trial does
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN && current.trial == permit)
+            status.compareAndSet(current, Status.CLOSED);
+    }
+
+    /**
+     * @param permit the permit the call was made with
+     */
+    public void onFailure(Permit permit) {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            // the trial failed, wait out another period, a late failure from before leaves it be
+            if (current.trial == permit)
+                open(current, System.currentTimeMillis());
+        } else if (current.state == State.CLOSED && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open(current, System.currentTimeMillis());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return current().state;
+    }
+
+    /**
+     * @return how long until a call may be let through, 0 if calls are being made. While the
+     * trial call is out that is how long it has left to report back.
+     */
+    public long getRetryAfterMillis() {
+        Status current = current();
+        if (current.state == State.CLOSED)
+            return 0;
+        return Math.max(0L, current.since + openMillis - System.currentTimeMillis());
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTimesOpened() {
+        return timesOpened.sum();
+    }
+
+    /**
+     * @return the current status, having reopened the breaker if its trial call has not
+     * reported back in time
+     */
+    private Status current() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN && System.currentTimeMillis() - current.since >= openMillis) {
+            // the trial is as good as failed, it was let through when the last period ended
+            open(current, current.since + openMillis);
+            current = status.get();
+        }
+        return current;
+    }
+
+    private void open(Status from, long openedAt) {
+        if (status.compareAndSet(from, new Status(State.OPEN, openedAt, null))) {
+            consecutiveFailures.set(0);
+            timesOpened.increment();
+        }
+    }
+
+    /**
+     * The state, when it was entered and the trial call's permit change together.
+     */
+    private static final class Status {
+
+        private static final Status CLOSED = new Status(State.CLOSED, 0L, null);
+
+        private final State state;
+        // when the breaker opened, or the trial call was let through
+        private final long since;
+        private final Permit trial;
+
+        private Status(State state, long since, Permit trial) {
+            this.state = state;
+            this.since = since;
+            this.trial = trial;
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects keyed values and hands the latest value per key to a consumer once no new
+ * values have arrived for a quiet window. Everything collected in that time is delivered
+ * together, a steady stream of values is still delivered at least every max wait.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class KeyedDebouncer<K, V> {
+
+    private final long quietMillis;
+    private final long maxWaitMillis;
+    private final Consumer<Map<K, V>> consumer;
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private Map<K, V> pending = new LinkedHashMap<>();
+    private long firstPendingAt;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public KeyedDebouncer(String name, long quietMillis, long maxWaitMillis, Consumer<Map<K, V>> consumer) {
+        this.quietMillis = quietMillis;
+        this.maxWaitMillis = Math.max(quietMillis, maxWaitMillis);
+        this.consumer = consumer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+    }
+
+    /**
+     * Record the latest value for a key, replacing any value still waiting for delivery.
+     *
+     * @param key   key
+     * @param value latest value
+     */
+    public synchronized void submit(K key, V value) {
+        long now = System.currentTimeMillis();
+        // re-insert so the map reflects the order of the latest changes
+        pending.remove(key);
+        pending.put(key, value);
+        if (firstPendingAt == 0)
+            firstPendingAt = now;
+
+        if (scheduledFlush != null)
+            scheduledFlush.cancel(false);
+        long delay = Math.min(quietMillis, firstPendingAt + maxWaitMillis - now);
+        scheduledFlush = scheduler.schedule(this::flush, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of keys waiting for delivery
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop the timer, values still waiting are discarded.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void flush() {
+        Map<K, V> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            firstPendingAt = 0;
+            scheduledFlush = null;
+        }
+
+        if (!batch.isEmpty())
+            consumer.accept(batch);
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+/**
+ * What our bounded work queues do when a new item arrives and they are full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Make the caller wait (up to a configured limit) for space, then drop the new item.
+     */
+    BLOCK,
+
+    /**
+     * Drop the new item straight away.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drop the item that has waited longest to make room for the new one.
+     */
+    DROP_OLDEST;
+
+    /**
+     * Parse a policy name, falling back to the default for anything we don't recognise.
+     *
+     * @param name         policy name, case insensitive
+     * @param defaultValue the policy to use if the name is not valid
+     * @return the policy
+     */
+    public static OverflowPolicy parse(String name, OverflowPolicy defaultValue) {
+        if (name == null)
+            return defaultValue;
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spaces permits evenly at a fixed rate. Callers reserve a permit and are told how long to
+ * wait before using it, rather than being put to sleep, so the wait can be a scheduled delay.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param permitsPerSecond the rate, zero or less for no limit
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0L;
+    }
+
+    /**
+     * Reserve the next free permit.
+     *
+     * @return nanoseconds to wait before the permit may be used, 0 if it is free now
+     */
+    public long reserve() {
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextFree.get();
+            // a permit left unused while we were idle is not saved up for a burst
+            long slot = next - now > 0 ? next : now;
+            if (nextFree.compareAndSet(next, slot + intervalNanos))
+                return slot - now;
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs keyed tasks on a fixed set of single threaded stripes. A key always maps to the same
+ * stripe, so the tasks for a key run one at a time in the order they were submitted, while
+ * tasks for keys on other stripes run in parallel.
+ * <p>
+ * Each stripe has a bounded queue, what happens when it is full is decided by an
+ * {@link OverflowPolicy}. The time tasks wait in the queue and the time they take to run are
+ * recorded.
+ *
+ * @param <K> key type
+ */
+public class StripedExecutor<K> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final List<Stripe> stripes;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final Consumer<K> onDropped;
+
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final LatencyHistogram runs = new LatencyHistogram();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param name               thread name prefix
+     * @param stripes            number of stripes, each has its own thread
+     * @param queueSize          tasks each stripe may hold waiting to run
+     * @param overflowPolicy     what to do when a stripe's queue is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for room
+     * @param onDropped          told the key of every task we drop
+     */
+    public StripedExecutor(String name, int stripes, int queueSize, OverflowPolicy overflowPolicy,
+                           long blockTimeoutMillis, Consumer<K> onDropped) {
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.onDropped = onDropped;
+        this.stripes = new ArrayList<>(Math.max(1, stripes));
+
+        NamedThreadFactory threads = new NamedThreadFactory(name);
+        for (int i = 0; i < Math.max(1, stripes); i++) {
+            Stripe stripe = new Stripe(queueSize);
+            this.stripes.add(stripe);
+            threads.newThread(stripe).start();
+        }
+    }
+
+    /**
+     * Queue a task behind the earlier tasks for its key.
+     *
+     * @param key  the key, decides the stripe
+     * @param task the task
+     * @return false if the task was dropped
+     */
+    public boolean execute(K key, Runnable task) {
+        Task<K> queued = new Task<>(key, task);
+        BlockingQueue<Task<K>> queue = stripeOf(key).queue;
+        submitted.increment();
+
+        boolean accepted;
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                accepted = queue.offer(queued);
+                break;
+            case DROP_OLDEST:
+                accepted = queue.offer(queued);
+                while (!accepted) {
+                    Task<K> oldest = queue.poll();
+                    if (oldest != null)
+                        drop(oldest);
+                    accepted = queue.offer(queued);
+                }
+                break;
+            default:
+                try {
+                    accepted = queue.offer(queued, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+        }
+
+        if (!accepted)
+            drop(queued);
+        return accepted;
+    }
+
+    public StripeStats getStats() {
+        int queued = 0;
+        for (Stripe stripe : stripes)
+            queued += stripe.queue.size();
+        return new StripeStats(stripes.size(), queued, submitted.sum(), completed.sum(), failed.sum(),
+                dropped.sum(), waits.snapshot(), runs.snapshot());
+    }
+
+    /**
+     * Stop the stripes, tasks still queued are discarded.
+     */
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.running = false;
+            Thread thread = stripe.thread;
+            if (thread != null)
+                thread.interrupt();
+            stripe.queue.clear();
+        }
+    }
+
+    private Stripe stripeOf(K key) {
+        int hash = key == null ? 0 : key.hashCode();
+        // spread the high bits, string hashes of similar keys differ mostly in their low bits
+        hash ^= hash >>> 16;
+        return stripes.get((hash & Integer.MAX_VALUE) % stripes.size());
+    }
+
+    private void drop(Task<K> task) {
+        dropped.increment();
+        try {
+            onDropped.accept(task.key);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to handle dropped task for {}", task.key, e);
+        }
+    }
+
+    private static final class Task<K> {
+
+        private final K key;
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        private Task(K key, Runnable task) {
+            this.key = key;
+            this.task = task;
+        }
+
+    }
+
+    private final class Stripe implements Runnable {
+
+        private final BlockingQueue<Task<K>> queue;
+        private volatile boolean running = true;
+        private volatile Thread thread;
+
+        private Stripe(int queueSize) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                Task<K> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                long started = System.nanoTime();
+                waits.recordNanos(started - next.queuedAt);
+                try {
+                    next.task.run();
+                    completed.increment();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    LOG.error("Task for {} failed", next.key, e);
+                } finally {
+                    runs.recordNanos(System.nanoTime() - started);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Point in time view of a striped executor, latencies are in microseconds.
+     */
+    public static final class StripeStats {
+
+        private final int stripes;
+        private final int queued;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long dropped;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot runTime;
+
+        public StripeStats(int stripes, int queued, long submitted, long completed, long failed, long dropped,
+                           LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot runTime) {
+            this.stripes = stripes;
+            this.queued = queued;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.queueWait = queueWait;
+            this.runTime = runTime;
+        }
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        /**
+         * @return tasks waiting to run, across all stripes
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return how long tasks waited for their stripe
+         */
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * @return how long tasks took to run
+         */
+        public LatencyHistogram.Snapshot getRunTime() {
+            return runTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.gateway.AuthGateway;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuthTokenServiceTest {
+
+    private static final String TOKEN = "token";
+    private static final String USER = "user";
+
+    private final FakeGateway gateway = new FakeGateway();
+
+    @After
+    public void tearDown() {
+        gateway.release();
+    }
+
+    @Test
+    public void validTokenIsRememberedForItsTtl() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 60000L, 60000L);
+        gateway.users.put(TOKEN, USER);
+
+        assertEquals(Optional.of(USER), service.getUserForToken(TOKEN));
+        assertEquals(Optional.of(USER), service.getUserForToken(TOKEN));
+
+        assertEquals(1, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getHits());
+    }
+
+    @Test
+    public void validTokenIsCheckedAgainOnceItsTtlEnds() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 20L, 60000L);
+        gateway.users.put(TOKEN, USER);
+        service.getUserForToken(TOKEN);
+
+        Thread.sleep(40L);
+        gateway.users.remove(TOKEN);
+
+        assertFalse(service.getUserForToken(TOKEN).isPresent());
+        assertEquals(2, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getExpirations());
+    }
+
+    @Test
+    public void rejectedTokenIsRememberedForTheNegativeTtl() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 60000L, 50L);
+
+        assertFalse(service.getUserForToken(TOKEN).isPresent());
+        assertFalse(service.getUserForToken(TOKEN).isPresent());
+        assertEquals(1, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getNegativeHits());
+
+        // the token may since have been issued
+        Thread.sleep(80L);
+        gateway.users.put(TOKEN, USER);
+        assertEquals(Optional.of(USER), service.getUserForToken(TOKEN));
+        assertEquals(2, gateway.calls.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneGatewayCall() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 60000L, 60000L);
+        gateway.users.put(TOKEN, USER);
+        gateway.block();
+
+        CompletableFuture<Optional<Object>> first = CompletableFuture.supplyAsync(() -> lookup(service));
+        awaitCondition(() -> gateway.calls.get() == 1);
+        CompletableFuture<Optional<Object>> second = CompletableFuture.supplyAsync(() -> lookup(service));
+        awaitCondition(() -> service.getCacheStats().getCoalesced() == 1);
+        gateway.release();
+
+        assertEquals(Optional.of(USER), first.get());
+        assertEquals(Optional.of(USER), second.get());
+        assertEquals(1, gateway.calls.get());
+    }
+
+    @Test
+    public void failedCallIsNotRemembered() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 60000L, 60000L);
+        gateway.users.put(TOKEN, USER);
+        gateway.failNext = true;
+
+        try {
+            service.getUserForToken(TOKEN);
+            fail("Expected the Gateway failure");
+        } catch (IllegalStateException e) {
+            // the Gateway could not tell us either way
+        }
+
+        assertEquals(Optional.of(USER), service.getUserForToken(TOKEN));
+        assertEquals(2, gateway.calls.get());
+    }
+
+    @Test
+    public void purgedTokenIsCheckedAgain() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 100, 60000L, 60000L);
+        gateway.users.put(TOKEN, USER);
+        service.getUserForToken(TOKEN);
+
+        gateway.users.remove(TOKEN);
+        service.purge(TOKEN);
+
+        assertFalse(service.getUserForToken(TOKEN).isPresent());
+        assertEquals(2, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getPurges());
+    }
+
+    @Test
+    public void fullCacheEvictsTheTokensClosestToExpiring() throws Exception {
+        AuthTokenService service = new AuthTokenService(gateway, 10, 60000L, 60000L);
+        for (int i = 0; i <= 10; i++) {
+            gateway.users.put(TOKEN + i, USER);
+            service.getUserForToken(TOKEN + i);
+            Thread.sleep(2L);
+        }
+
+        assertTrue(service.getCacheStats().getSize() <= 10);
+        assertTrue(service.getCacheStats().getSizeEvictions() > 0);
+        service.getUserForToken(TOKEN + 10);
+        assertEquals(11, gateway.calls.get());
+        service.getUserForToken(TOKEN + 0);
+        assertEquals(12, gateway.calls.get());
+    }
+
+    private static Optional<Object> lookup(AuthTokenService service) {
+        try {
+            return service.getUserForToken(TOKEN);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Timed out waiting for the condition");
+            Thread.sleep(5L);
+        }
+    }
+
+    /**
+     * Knows the users of the tokens it was given, any other token is not valid.
+     */
+    private static final class FakeGateway implements AuthGateway {
+
+        private final Map<String, Object> users = new ConcurrentHashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile CountDownLatch blocked;
+        private volatile boolean failNext;
+
+        /**
+         * Hold every call until {@link #release()}.
+         */
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void release() {
+            if (blocked != null)
+                blocked.countDown();
+        }
+
+        @Override
+        public Object getUserForToken(String otagToken) {
+            calls.incrementAndGet();
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("The Gateway could not be reached");
+            }
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return users.get(otagToken);
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.opentext.otag.sdk.types.v3.MailRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MailOutboxTest {
+
+    private static final List<String> TO = Collections.singletonList("to@example.com");
+
+    private Path directory;
+    private MailOutbox outbox;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mail-outbox");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (outbox != null)
+            outbox.shutdown();
+        Files.walk(directory).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void failedMailIsRetriedUntilItIsSent() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        outbox = outbox(mail -> attempts.incrementAndGet() > 2, 5);
+
+        outbox.enqueue("from@example.com", TO, "subject", "body");
+
+        awaitCondition(() -> outbox.getStats().getSent() == 1);
+        assertEquals(3, attempts.get());
+        assertEquals(2, outbox.getStats().getRetries());
+        assertEquals(0, outbox.getStats().getDeadLettered());
+    }
+
+    @Test
+    public void mailIsDeadLetteredAfterTheMaxAttempts() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        outbox = outbox(mail -> {
+            attempts.incrementAndGet();
+            return false;
+        }, 3);
+
+        outbox.enqueue("from@example.com", TO, "dead letter", "body");
+
+        // the outcome is journalled once the dead letter is written
+        awaitCondition(() -> journalRecords("D") == 1);
+        assertEquals(1, outbox.getStats().getDeadLettered());
+        assertEquals(3, attempts.get());
+        assertEquals(2, outbox.getStats().getRetries());
+        List<String> deadLetters = Files.readAllLines(directory.resolve("outbox.dead"), StandardCharsets.UTF_8);
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).contains("dead letter"));
+
+        // it is not sent again after a restart
+        outbox.shutdown();
+        outbox = outbox(mail -> attempts.incrementAndGet() > 0, 3);
+        assertEquals(0, outbox.getStats().getDepth());
+    }
+
+    @Test
+    public void unsentMailIsRecoveredAfterARestart() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        outbox = new MailOutbox(directory.toFile(), mail -> {
+            attempts.incrementAndGet();
+            return false;
+        }, false, 10, 100, 60000L, 60000L);
+        long first = outbox.enqueue("from@example.com", TO, "first", "body");
+        outbox.enqueue("from@example.com", TO, "second", "body");
+        awaitCondition(() -> attempts.get() == 2);
+        outbox.shutdown();
+
+        AtomicInteger sent = new AtomicInteger();
+        outbox = outbox(mail -> sent.incrementAndGet() > 0, 3);
+
+        awaitCondition(() -> outbox.getStats().getSent() == 2);
+        assertEquals(2, sent.get());
+        // ids carry on from those in the journal
+        assertTrue(outbox.enqueue("from@example.com", TO, "third", "body") > first + 1);
+    }
+
+    @Test
+    public void journalIsCompactedOnceMostOfItIsFinished() throws Exception {
+        int count = 1200;
+        outbox = new MailOutbox(directory.toFile(), mail -> true, false, 100, 3, 1L, 10L);
+
+        for (int i = 0; i < count; i++)
+            outbox.enqueue("from@example.com", TO, "subject " + i, "body");
+        awaitCondition(() -> outbox.getStats().getSent() == count);
+        awaitCondition(() -> journalRecords("S") == journalRecords("Q"));
+
+        // a queued and a sent record per email had we never compacted
+        long records = journalRecords("Q") + journalRecords("S");
+        assertTrue("journal holds " + records + " records", records < count);
+
+        outbox.shutdown();
+        outbox = outbox(mail -> true, 3);
+        assertEquals(0, outbox.getStats().getDepth());
+    }
+
+    private MailOutbox outbox(Predicate<MailRequest> sender, int maxAttempts) throws IOException {
+        return new MailOutbox(directory.toFile(), sender, false, 10, maxAttempts, 1L, 10L);
+    }
+
+    private long journalRecords(String op) {
+        try {
+            return Files.readAllLines(directory.resolve("outbox.journal"), StandardCharsets.UTF_8).stream()
+                    .filter(line -> line.startsWith("{\"op\":\"" + op + "\""))
+                    .count();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Timed out waiting for the condition");
+            Thread.sleep(5L);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.gateway.NotificationsGateway;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PushNotificationServiceTest {
+
+    private static final NotificationsGateway UNUSED = request -> {
+        throw new AssertionError("Nothing should be sent");
+    };
+
+    @Test
+    public void queuedNotificationIsDroppedOnShutdown() throws Exception {
+        PushNotificationService service = new PushNotificationService(UNUSED, null);
+        CompletableFuture<Boolean> queued = service.sendAsync(message());
+
+        service.shutdown();
+
+        assertFalse(queued.get(1L, TimeUnit.SECONDS));
+        assertEquals(1, service.getStats().getDropped());
+    }
+
+    @Test
+    public void notificationSentAfterShutdownIsDroppedStraightAway() throws Exception {
+        PushNotificationService service = new PushNotificationService(UNUSED, null);
+        service.start();
+        service.shutdown();
+
+        CompletableFuture<Boolean> sent = service.sendAsync(message());
+
+        assertFalse(sent.get(1L, TimeUnit.SECONDS));
+        assertEquals(0, service.getStats().getQueued());
+        assertEquals(1, service.getStats().getDropped());
+    }
+
+    private static PushNotificationService.PushMessage message() {
+        return new PushNotificationService.PushMessage("title", "summary",
+                Collections.singletonList("user"), Collections.emptyList(), Collections.emptyList());
+    }
+
+}
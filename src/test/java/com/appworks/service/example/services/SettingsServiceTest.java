@@ -0,0 +1,327 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.services;
+
+import com.appworks.service.example.gateway.SettingsGateway;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentext.otag.sdk.types.v3.message.SettingsChangeMessage;
+import com.opentext.otag.sdk.types.v3.settings.Setting;
+import com.opentext.otag.sdk.types.v3.settings.SettingType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SettingsServiceTest {
+
+    private static final String KEY = "my.setting";
+
+    private final FakeGateway gateway = new FakeGateway();
+    private SettingsService service;
+    private Path snapshotDir;
+
+    @After
+    public void tearDown() throws IOException {
+        gateway.release();
+        if (service != null)
+            service.shutdown();
+        if (snapshotDir != null)
+            Files.walk(snapshotDir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void readsAreServedFromTheCache() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        gateway.put(KEY, "a", 5L);
+
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals(1, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getHits());
+    }
+
+    @Test
+    public void olderReadDoesNotReplaceTheSettingWeHold() {
+        // every read goes back to the Gateway
+        service = new SettingsService(gateway, 0L, 0L);
+        gateway.put(KEY, "a", 5L);
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+
+        // e.g. a lagging Gateway node answers with an earlier version
+        gateway.put(KEY, "old", 4L);
+        Setting setting = service.getSetting(KEY).get();
+        assertEquals("a", setting.getValue());
+        assertEquals(Long.valueOf(5L), setting.getSeqNo());
+    }
+
+    @Test
+    public void newerReadReplacesTheSettingWeHold() {
+        service = new SettingsService(gateway, 0L, 0L);
+        gateway.put(KEY, "a", 5L);
+        service.getSetting(KEY);
+
+        gateway.put(KEY, "b", 6L);
+        assertEquals("b", service.getSetting(KEY).get().getValue());
+    }
+
+    @Test
+    public void changeMessageIsAppliedWithoutAskingTheGateway() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        gateway.put(KEY, "a", 5L);
+        service.getSetting(KEY);
+
+        service.onSettingChanged(changeMessage(KEY, "b"));
+
+        Setting setting = service.getSetting(KEY).get();
+        assertEquals("b", setting.getValue());
+        // the message carries no sequence number, we keep the one the Gateway gave us
+        assertEquals(Long.valueOf(5L), setting.getSeqNo());
+        assertEquals(1, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getChangeUpdates());
+    }
+
+    @Test
+    public void changedSettingIsReplacedByTheNextRead() throws InterruptedException {
+        service = new SettingsService(gateway, 50L, 50L);
+        gateway.put(KEY, "a", 5L);
+        service.getSetting(KEY);
+        service.onSettingChanged(changeMessage(KEY, "b"));
+        assertEquals("b", service.getSetting(KEY).get().getValue());
+
+        // the Gateway has the final say, even though its sequence number is the one we hold
+        Thread.sleep(80L);
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals(2, gateway.calls.get());
+    }
+
+    @Test
+    public void changeMessageForSettingWeDoNotHoldIsIgnored() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        gateway.put(KEY, "a", 5L);
+
+        service.onSettingChanged(changeMessage(KEY, "b"));
+
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals(0, service.getCacheStats().getChangeUpdates());
+    }
+
+    @Test
+    public void multiKeyReadServesTheSettingWeHoldWhenTheGatewayIsSlow() {
+        service = new SettingsService(gateway, 0L, 0L);
+        gateway.put(KEY, "a", 5L);
+        gateway.put("other.setting", "x", 1L);
+        Map<String, SettingValue> values = service.getSettingValues(Collections.singletonList(KEY), 1000L);
+        assertFalse(values.get(KEY).isStale());
+
+        gateway.block();
+        values = service.getSettingValues(Arrays.asList(KEY, "other.setting"), 50L);
+
+        // we still hold the first, flagged as stale, we never held the second
+        assertEquals(Collections.singleton(KEY), values.keySet());
+        assertEquals("a", values.get(KEY).getRaw());
+        assertTrue(values.get(KEY).isStale());
+        assertEquals(2, service.getCacheStats().getFetchTimeouts());
+    }
+
+    @Test
+    public void missingSettingIsNotAskedForAgain() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+
+        assertFalse(service.getSetting(KEY).isPresent());
+        assertFalse(service.getSetting(KEY).isPresent());
+        assertEquals(1, gateway.calls.get());
+        assertEquals(1, service.getCacheStats().getNotFoundHits());
+    }
+
+    @Test
+    public void missingSettingIsAskedForAgainOnceItMayExist() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        assertFalse(service.getSetting(KEY).isPresent());
+
+        // the Gateway tells us when a Setting is created
+        gateway.put(KEY, "a", 1L);
+        service.onSettingChanged(changeMessage(KEY, "a"));
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals(2, gateway.calls.get());
+    }
+
+    @Test
+    public void invalidateForgetsMissingSetting() {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        assertFalse(service.getSetting(KEY).isPresent());
+        gateway.put(KEY, "a", 1L);
+
+        service.invalidate(KEY);
+
+        assertEquals("a", service.getSetting(KEY).get().getValue());
+        assertEquals(2, gateway.calls.get());
+    }
+
+    @Test
+    public void concurrentLoadsShareOneGatewayCall() throws Exception {
+        service = new SettingsService(gateway, 60000L, 60000L);
+        gateway.put(KEY, "a", 5L);
+        gateway.block();
+
+        CompletableFuture<Setting> first = CompletableFuture.supplyAsync(() -> service.getSetting(KEY).get());
+        awaitCondition(() -> gateway.calls.get() == 1);
+        CompletableFuture<Setting> second = CompletableFuture.supplyAsync(() -> service.getSetting(KEY).get());
+        awaitCondition(() -> service.getCacheStats().getCoalesced() == 1);
+        gateway.release();
+
+        assertSame(first.get(), second.get());
+        assertEquals(1, gateway.calls.get());
+    }
+
+    @Test
+    public void restoredSettingsAreServedUntilTheGatewayAnswers() throws Exception {
+        SettingsSnapshot snapshot = snapshot();
+        snapshot.save(Collections.singletonList(FakeGateway.setting(KEY, "a", 5L)));
+        gateway.put(KEY, "b", 6L);
+        service = new SettingsService(gateway, 60000L, 30000L, snapshot);
+
+        assertEquals(1, service.restoreSnapshot());
+
+        SettingValue restored = service.getSettingValue(KEY).get();
+        assertEquals("a", restored.getRaw());
+        assertTrue(restored.isFromSnapshot());
+        // the first read refreshes it in the background
+        awaitCondition(() -> !service.getSettingValue(KEY).get().isFromSnapshot());
+        assertEquals("b", service.getSettingValue(KEY).get().getRaw());
+    }
+
+    @Test
+    public void restoreLeavesTheSettingsWeHold() throws Exception {
+        SettingsSnapshot snapshot = snapshot();
+        snapshot.save(Collections.singletonList(FakeGateway.setting(KEY, "a", 5L)));
+        gateway.put(KEY, "b", 6L);
+        service = new SettingsService(gateway, 60000L, 30000L, snapshot);
+        service.getSetting(KEY);
+
+        assertEquals(0, service.restoreSnapshot());
+        assertEquals("b", service.getSettingValue(KEY).get().getRaw());
+    }
+
+    @Test
+    public void shutdownSavesTheSettingsWeHold() throws Exception {
+        SettingsSnapshot snapshot = snapshot();
+        gateway.put(KEY, "a", 5L);
+        service = new SettingsService(gateway, 60000L, 30000L, snapshot);
+        service.getSetting(KEY);
+
+        service.shutdown();
+
+        SettingsSnapshot.Snapshot saved = snapshot.load();
+        assertEquals(1, saved.getSettings().size());
+        assertEquals("a", saved.getSettings().get(0).getValue());
+        assertEquals(Long.valueOf(5L), saved.getSettings().get(0).getSeqNo());
+    }
+
+    @Test
+    public void unreadableSnapshotIsIgnored() throws Exception {
+        SettingsSnapshot snapshot = snapshot();
+        Files.write(snapshotDir.resolve("settings.snapshot"), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        service = new SettingsService(gateway, 60000L, 30000L, snapshot);
+
+        assertEquals(0, service.restoreSnapshot());
+    }
+
+    private SettingsSnapshot snapshot() throws IOException {
+        snapshotDir = Files.createTempDirectory("settings-snapshot");
+        return new SettingsSnapshot(snapshotDir.toFile());
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Timed out waiting for the condition");
+            Thread.sleep(5L);
+        }
+    }
+
+    private static SettingsChangeMessage changeMessage(String key, String newValue) {
+        // built the way the SDK reads it from the Gateway
+        Map<String, Object> json = new HashMap<>();
+        json.put("key", key);
+        json.put("newValue", newValue);
+        return new ObjectMapper().convertValue(json, SettingsChangeMessage.class);
+    }
+
+    /**
+     * Holds Settings in memory, handing out a copy on each read as the SDK client would.
+     */
+    private static final class FakeGateway implements SettingsGateway {
+
+        private final Map<String, Setting> settings = new ConcurrentHashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile CountDownLatch blocked;
+
+        void put(String key, String value, Long seqNo) {
+            settings.put(key, setting(key, value, seqNo));
+        }
+
+        /**
+         * Hold every read until {@link #release()}.
+         */
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void release() {
+            if (blocked != null)
+                blocked.countDown();
+        }
+
+        @Override
+        public Setting getSetting(String key) {
+            calls.incrementAndGet();
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Setting setting = settings.get(key);
+            return setting == null ? null : setting(key, setting.getValue(), setting.getSeqNo());
+        }
+
+        @Override
+        public void createSetting(Setting setting) {
+            settings.put(setting.getKey(), setting);
+        }
+
+        @Override
+        public void updateSetting(Setting setting) {
+            settings.put(setting.getKey(), setting);
+        }
+
+        private static Setting setting(String key, String value, Long seqNo) {
+            return new Setting(key, "my-service", SettingType.string, key, value, null, null, false, seqNo);
+        }
+
+    }
+
+}
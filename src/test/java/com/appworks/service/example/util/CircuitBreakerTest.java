@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100L;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000L, 60000L);
+
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // a success in between starts the count again
+        breaker.onSuccess(breaker.tryAcquire(), FAST);
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure(breaker.tryAcquire());
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejected());
+        assertEquals(1, breaker.getTimesOpened());
+        assertTrue(breaker.getRetryAfterMillis() > 0);
+    }
+
+    @Test
+    public void slowCallCountsAsFailure() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000L, 10L);
+
+        breaker.onSuccess(breaker.tryAcquire(), TimeUnit.MILLISECONDS.toNanos(10L));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void successfulTrialClosesTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS + 20L);
+
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        assertNotNull(trial);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only one trial at a time
+        assertNull(breaker.tryAcquire());
+
+        breaker.onSuccess(trial, FAST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRetryAfterMillis());
+    }
+
+    @Test
+    public void failedTrialReopensTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS + 20L);
+
+        breaker.onFailure(breaker.tryAcquire());
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTimesOpened());
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    public void lateCallDoesNotDecideTheTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, OPEN_MILLIS, 60000L);
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire());
+        Thread.sleep(OPEN_MILLIS + 20L);
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        // a call made before the breaker opened reports back while the trial is out
+        breaker.onSuccess(late, FAST);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(late);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(trial, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void trialThatDoesNotReportBackReopensTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS + 20L);
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        long retryAfter = breaker.getRetryAfterMillis();
+        assertTrue("retry after " + retryAfter, retryAfter > 0 && retryAfter <= OPEN_MILLIS);
+
+        Thread.sleep(OPEN_MILLIS + 20L);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRetryAfterMillis() > 0);
+        // reporting back now is too late to close it
+        breaker.onSuccess(trial, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, OPEN_MILLIS, 60000L);
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+}
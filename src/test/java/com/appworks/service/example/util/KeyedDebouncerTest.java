@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2017 Open Text.  All Rights Reserved.
+ */
+package com.appworks.service.example.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedDebouncerTest {
+
+    private final BlockingQueue<Map<String, Integer>> delivered = new LinkedBlockingQueue<>();
+    private KeyedDebouncer<String, Integer> debouncer;
+
+    @After
+    public void tearDown() {
+        if (debouncer != null)
+            debouncer.shutdown();
+    }
+
+    @Test
+    public void latestValuePerKeyIsDeliveredTogether() throws InterruptedException {
+        debouncer = new KeyedDebouncer<>("test-debounce", 50L, 5000L, delivered::add);
+
+        debouncer.submit("a", 1);
+        debouncer.submit("b", 1);
+        debouncer.submit("a", 2);
+        assertEquals(2, debouncer.getPendingCount());
+
+        Map<String, Integer> batch = delivered.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        // in the order of the latest changes
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(batch.keySet()));
+        assertEquals(Integer.valueOf(2), batch.get("a"));
+        assertEquals(0, debouncer.getPendingCount());
+        assertNull(delivered.poll(150L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void steadyStreamIsDeliveredWithinTheMaxWait() throws InterruptedException {
+        debouncer = new KeyedDebouncer<>("test-debounce", 100L, 200L, delivered::add);
+
+        // never quiet for long enough, only the max wait gets anything delivered
+        long streamEnds = System.currentTimeMillis() + 700L;
+        int value = 0;
+        while (System.currentTimeMillis() < streamEnds) {
+            debouncer.submit("a", value++);
+            Thread.sleep(20L);
+        }
+
+        assertTrue("delivered " + delivered.size() + " batches", delivered.size() >= 2);
+    }
+
+    @Test
+    public void shutdownDiscardsPendingValues() throws InterruptedException {
+        debouncer = new KeyedDebouncer<>("test-debounce", 50L, 5000L, delivered::add);
+        debouncer.submit("a", 1);
+
+        debouncer.shutdown();
+
+        assertNull(delivered.poll(150L, TimeUnit.MILLISECONDS));
+    }
+
+}